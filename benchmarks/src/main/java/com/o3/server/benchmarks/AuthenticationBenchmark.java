@@ -0,0 +1,64 @@
+package com.o3.server.benchmarks;
+
+import com.o3.server.CredentialCache;
+import com.o3.server.UserAuthenticator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Basic credential checks with the SHA-512 crypt on every call and with the credential cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticationBenchmark {
+    private static final String USERNAME = "benchuser";
+    private static final String PASSWORD = "benchpass";
+
+    private Path file;
+    private UserAuthenticator uncached;
+    private UserAuthenticator cached;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        file = Fixtures.openDatabase(0);
+        uncached = new UserAuthenticator("datarecord", new CredentialCache(0, 0));
+        cached = new UserAuthenticator("datarecord", new CredentialCache(300, 10000));
+        if (!uncached.addUser(USERNAME, PASSWORD, "bench@example.com", Fixtures.OWNER)) {
+            throw new IllegalStateException("Could not create the benchmark user");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        Fixtures.closeDatabase(file);
+    }
+
+    @Benchmark
+    public boolean checkCredentials() {
+        return uncached.checkCredentials(USERNAME, PASSWORD);
+    }
+
+    @Benchmark
+    public boolean checkCredentialsCached() {
+        return cached.checkCredentials(USERNAME, PASSWORD);
+    }
+}
@@ -0,0 +1,123 @@
+package com.o3.server.benchmarks;
+
+import com.o3.server.MessageDatabase;
+import com.o3.server.ObservationRecord;
+import com.o3.server.RecordQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MessageDatabase against a temporary SQLite file holding 1k, 100k or 1M messages. Each
+ * parameter runs in its own fork, so every fork seeds its own file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private Path file;
+    private MessageDatabase db;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        file = Fixtures.openDatabase(rows);
+        db = MessageDatabase.getInstance();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetTable() throws SQLException {
+        Fixtures.truncateDatabase(file, rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        Fixtures.closeDatabase(file);
+    }
+
+    /**
+     * One POST worth of insert, committed through the group commit writer on its own
+     */
+    @Benchmark
+    public int addMessage() throws SQLException {
+        return insert();
+    }
+
+    /**
+     * Concurrent POSTs, which the group commit writer commits together
+     */
+    @Benchmark
+    @Threads(8)
+    public int addMessageConcurrent() throws SQLException {
+        return insert();
+    }
+
+    private int insert() throws SQLException {
+        ObservationRecord record = Fixtures.record(counter.getAndIncrement());
+        return db.addMessage(record.getTargetBodyName(), record.getCenterBodyName(), record.getEpoch(),
+                             record.getOrbitalElements(), record.getStateVector(), Fixtures.OWNER,
+                             record.getRecordPayload(), record.getObservatories());
+    }
+
+    /**
+     * The whole table decoded into a list, as the original GET did
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<ObservationRecord> getAllMessages() throws SQLException {
+        return db.getAllMessages();
+    }
+
+    /**
+     * One page of 100 records streamed as JSON, as GET does today
+     */
+    @Benchmark
+    public void streamPage(Blackhole blackhole) throws SQLException, IOException {
+        RecordQuery query = new RecordQuery();
+        query.setAfterId(ThreadLocalRandom.current().nextInt(Math.max(1, rows - 100)));
+        query.setLimit(100);
+        db.streamMessages(query, blackhole::consume);
+    }
+
+    /**
+     * A selective filtered query, served from the target body index
+     */
+    @Benchmark
+    public void streamFilteredPage(Blackhole blackhole) throws SQLException, IOException {
+        RecordQuery query = new RecordQuery();
+        query.setTargetBodyName("Vesta");
+        query.setLimit(100);
+        db.streamMessages(query, blackhole::consume);
+    }
+
+    @Benchmark
+    public ObservationRecord getMessageById() throws SQLException {
+        return db.getMessageById(1 + ThreadLocalRandom.current().nextInt(rows));
+    }
+}
@@ -0,0 +1,51 @@
+package com.o3.server.benchmarks;
+
+import com.o3.server.JsonReader;
+import com.o3.server.ObservationRequest;
+import com.o3.server.OrbitalElements;
+import com.o3.server.StateVector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding and type-checking request bodies. The orbital element and state vector readers
+ * are where the former validateOrbitalElements and validateStateVector checks now happen.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodingBenchmark {
+
+    private static JsonReader reader(byte[] body) {
+        return new JsonReader(new ByteArrayInputStream(body), body.length);
+    }
+
+    @Benchmark
+    public ObservationRequest observationRequest() throws IOException {
+        JsonReader reader = reader(Fixtures.OBSERVATION_BODY);
+        ObservationRequest request = ObservationRequest.read(reader);
+        reader.endDocument();
+        return request;
+    }
+
+    @Benchmark
+    public OrbitalElements orbitalElements() throws IOException {
+        return OrbitalElements.read(reader(Fixtures.ORBITAL_ELEMENTS_BODY));
+    }
+
+    @Benchmark
+    public StateVector stateVector() throws IOException {
+        return StateVector.read(reader(Fixtures.STATE_VECTOR_BODY));
+    }
+}
@@ -0,0 +1,126 @@
+package com.o3.server.benchmarks;
+
+import com.o3.server.Log;
+import com.o3.server.MessageDatabase;
+import com.o3.server.ObservationRecord;
+import com.o3.server.Observatory;
+import com.o3.server.OrbitalElements;
+import com.o3.server.StateVector;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records, request bodies and temporary databases shared by the benchmarks
+ */
+final class Fixtures {
+    static final String OWNER = "BenchNick";
+
+    static final byte[] OBSERVATION_BODY = ("{"
+        + "\"target_body_name\":\"Mars\",\"center_body_name\":\"Sun\",\"epoch\":\"2025-04-01T00:00:00Z\","
+        + "\"orbital_elements\":{\"semi_major_axis_au\":1.524,\"eccentricity\":0.093,\"inclination_deg\":1.85,"
+        + "\"longitude_ascending_node_deg\":49.5,\"argument_of_periapsis_deg\":286.5,\"mean_anomaly_deg\":19.4},"
+        + "\"state_vector\":{\"position_au\":[0.123,1.456,-0.789],\"velocity_au_per_day\":[-0.012,0.015,0.001]},"
+        + "\"metadata\":{\"record_payload\":\"Mars observation\",\"observatory\":["
+        + "{\"latitude\":43.10591835328922,\"longitude\":50.85719242538301,\"observatory_name\":\"Example observatory\"},"
+        + "{\"latitude\":65.0121,\"longitude\":25.4651,\"observatory_name\":\"Oulu\"}]}}")
+        .getBytes(StandardCharsets.UTF_8);
+
+    static final byte[] ORBITAL_ELEMENTS_BODY = ("{\"semi_major_axis_au\":1.524,\"eccentricity\":0.093,"
+        + "\"inclination_deg\":1.85,\"longitude_ascending_node_deg\":49.5,"
+        + "\"argument_of_periapsis_deg\":286.5,\"mean_anomaly_deg\":19.4}")
+        .getBytes(StandardCharsets.UTF_8);
+
+    static final byte[] STATE_VECTOR_BODY = ("{\"position_au\":[0.123,1.456,-0.789],"
+        + "\"velocity_au_per_day\":[-0.012,0.015,0.001]}")
+        .getBytes(StandardCharsets.UTF_8);
+
+    private static final String[] BODIES = {"Mars", "Ceres", "Vesta", "Pallas", "Jupiter", "Moon 301"};
+
+    private Fixtures() {
+    }
+
+    static Observatory observatory(int i) {
+        Observatory observatory = new Observatory(43.1 + i % 40, 50.8 - i % 90, "Observatory " + (i % 50));
+        observatory.setWeatherData(270.5 + i % 30, i % 100, 0.2);
+        return observatory;
+    }
+
+    /**
+     * A record as the POST handler stores it: orbital elements or a state vector, payload,
+     * owner and one or two observatories
+     */
+    static ObservationRecord record(int i) {
+        OrbitalElements elements = i % 2 == 0
+            ? new OrbitalElements(1.524, 0.093 + i % 7 * 0.001, 1.85, 49.5, 286.5, i % 360) : null;
+        StateVector vector = i % 2 == 1
+            ? new StateVector(new double[] {0.123, 1.456, -0.789}, new double[] {-0.012, 0.015, 0.001}) : null;
+        ObservationRecord record = new ObservationRecord(BODIES[i % BODIES.length], "Sun",
+            "2025-04-0" + (i % 9 + 1) + "T00:00:00Z", elements, vector);
+        record.setMetadata(-1, null, OWNER);
+        record.setRecordPayload("Observation " + i);
+        List<Observatory> observatories = new ArrayList<>();
+        observatories.add(observatory(i));
+        if (i % 3 == 0) {
+            observatories.add(observatory(i + 1));
+        }
+        record.setObservatories(observatories);
+        return record;
+    }
+
+    /**
+     * Opens the shared MessageDatabase on a new temporary file holding rows records. The
+     * server defaults apply, except that a commit group never waits for more records: an
+     * insert then costs its own commit instead of mostly the commit delay.
+     */
+    static Path openDatabase(int rows) throws IOException, SQLException {
+        Log.setLevel(Log.Level.WARN);
+        Path file = Files.createTempFile("o3-bench", ".db");
+        Files.delete(file);
+        MessageDatabase db = MessageDatabase.getInstance();
+        db.open(file.toString(), Runtime.getRuntime().availableProcessors(), 5000, 100, 0,
+                32L * 1024 * 1024, 10000);
+
+        int chunk = 10000;
+        List<ObservationRecord> batch = new ArrayList<>(chunk);
+        for (int i = 0; i < rows; i++) {
+            batch.add(record(i));
+            if (batch.size() == chunk || i == rows - 1) {
+                db.addMessages(batch);
+                batch.clear();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the messages added after the first rows, so inserting benchmarks measure
+     * every iteration against the same table size
+     */
+    static void truncateDatabase(Path file, int rows) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file)) {
+            for (String sql : new String[] {"DELETE FROM observatories WHERE message_id > ?",
+                                            "DELETE FROM messages WHERE id > ?"}) {
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    statement.setInt(1, rows);
+                    statement.executeUpdate();
+                }
+            }
+        }
+    }
+
+    static void closeDatabase(Path file) throws IOException, SQLException {
+        MessageDatabase.getInstance().close();
+        for (String suffix : new String[] {"", "-wal", "-shm"}) {
+            Files.deleteIfExists(Path.of(file + suffix));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.o3.server.benchmarks;
+
+import com.o3.server.ObservationRecord;
+import com.o3.server.Observatory;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and printing the JSON of a record, as GET does on a record cache miss
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    private ObservationRecord record;
+    private Observatory observatory;
+
+    @Setup
+    public void setUp() {
+        record = Fixtures.record(0);
+        record.setMetadata(1, "2026-02-08T21:56:10.269Z", Fixtures.OWNER);
+        observatory = Fixtures.observatory(0);
+    }
+
+    @Benchmark
+    public JSONObject recordToJson() {
+        return record.toJSON();
+    }
+
+    @Benchmark
+    public byte[] recordToBytes() {
+        return record.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public JSONObject observatoryToJson() {
+        return observatory.toJSON();
+    }
+}
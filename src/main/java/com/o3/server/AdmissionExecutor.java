@@ -0,0 +1,201 @@
+package com.o3.server;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor for the HttpsServer that caps the number of exchanges waiting or running.
+ * Exchanges over the cap are not dropped (the server would just close the connection);
+ * they run on a small shedding pool where the authenticators and the admission filter
+ * answer 503 with Retry-After before any real work is done.
+ *
+ * Two modes are supported: "bounded" runs exchanges on a fixed pool of platform threads
+ * with a bounded queue, "virtual" runs every exchange on its own virtual thread (Java 21+)
+ * and only caps how many are in flight.
+ */
+public class AdmissionExecutor implements Executor {
+    public static final String MODE_BOUNDED = "bounded";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private static final ThreadLocal<Boolean> SHEDDING = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private static volatile int retryAfterSeconds = 1;
+
+    private final ExecutorService delegate;
+    private final ThreadPoolExecutor shedPool;
+    private final int maxOutstanding;
+    private final AtomicInteger outstanding;
+    private final AtomicInteger running;
+    private final LongAdder rejected;
+    private final String mode;
+
+    private AdmissionExecutor(String mode, ExecutorService delegate, int maxOutstanding, int retryAfter) {
+        this.mode = mode;
+        this.delegate = delegate;
+        this.maxOutstanding = maxOutstanding;
+        this.outstanding = new AtomicInteger();
+        this.running = new AtomicInteger();
+        this.rejected = new LongAdder();
+        retryAfterSeconds = retryAfter;
+
+        // Rejecting is cheap, a couple of threads are enough; beyond that the connection is closed
+        this.shedPool = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1024), namedThreads("http-shed"));
+    }
+
+    /**
+     * A fixed pool of platform threads; at most threads + queueCapacity exchanges are admitted
+     */
+    public static AdmissionExecutor bounded(int threads, int queueCapacity, int retryAfterSeconds) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), namedThreads("http-worker"));
+        return new AdmissionExecutor(MODE_BOUNDED, pool, threads + queueCapacity, retryAfterSeconds);
+    }
+
+    /**
+     * One virtual thread per exchange with at most maxConcurrent in flight. Falls back to
+     * a bounded pool when the runtime has no virtual threads.
+     */
+    public static AdmissionExecutor virtual(int maxConcurrent, int fallbackThreads, int retryAfterSeconds) {
+        try {
+            ExecutorService virtualThreads = (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new AdmissionExecutor(MODE_VIRTUAL, virtualThreads, maxConcurrent, retryAfterSeconds);
+        } catch (ReflectiveOperationException e) {
+            Log.warn("Virtual threads need Java 21 or newer, using a bounded pool instead");
+            return bounded(fallbackThreads, Math.max(0, maxConcurrent - fallbackThreads), retryAfterSeconds);
+        }
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public void execute(Runnable exchange) {
+        if (outstanding.incrementAndGet() > maxOutstanding) {
+            outstanding.decrementAndGet();
+            rejected.increment();
+            // Throws RejectedExecutionException if even the shed pool is full
+            shedPool.execute(() -> {
+                SHEDDING.set(Boolean.TRUE);
+                try {
+                    exchange.run();
+                } finally {
+                    SHEDDING.set(Boolean.FALSE);
+                }
+            });
+            return;
+        }
+
+        try {
+            delegate.execute(() -> {
+                running.incrementAndGet();
+                try {
+                    exchange.run();
+                } finally {
+                    running.decrementAndGet();
+                    outstanding.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            outstanding.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * True while the current thread runs an exchange that was not admitted
+     */
+    public static boolean isShedding() {
+        return SHEDDING.get();
+    }
+
+    /**
+     * Result for authenticators to return instead of checking credentials while shedding
+     */
+    public static Authenticator.Result rejectAuthentication(HttpExchange exchange) {
+        exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+        return new Authenticator.Failure(503);
+    }
+
+    /**
+     * Filter that answers 503 for exchanges that were not admitted, for contexts
+     * without an authenticator
+     */
+    public static Filter filter() {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                if (!isShedding()) {
+                    chain.doFilter(exchange);
+                    return;
+                }
+                exchange.getRequestBody().close();
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+
+            @Override
+            public String description() {
+                return "Rejects exchanges over the admission limit with 503";
+            }
+        };
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Exchanges admitted but not yet running
+     */
+    public int getQueueDepth() {
+        return Math.max(0, outstanding.get() - running.get());
+    }
+
+    public int getActiveCount() {
+        return running.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Stops taking exchanges; the ones already admitted or being rejected still run
+     */
+    public void shutdown() {
+        delegate.shutdown();
+        shedPool.shutdown();
+    }
+
+    /**
+     * Waits until the exchanges running at shutdown have finished
+     *
+     * @return false if some were still running when the timeout expired
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean terminated = delegate.awaitTermination(timeout, unit);
+        return shedPool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+            && terminated;
+    }
+}
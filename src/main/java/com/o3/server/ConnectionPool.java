@@ -0,0 +1,156 @@
+package com.o3.server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SQLite connection pool with a read/write split. The database runs in WAL mode so
+ * the reader connections never block on the single writer connection. Every pooled
+ * connection keeps its own cache of prepared statements.
+ */
+public class ConnectionPool {
+    private final PooledConnection writer;
+    private final ReentrantLock writerLock;
+    private final BlockingQueue<PooledConnection> readers;
+    private final List<PooledConnection> allReaders;
+    private final long acquireTimeoutMs;
+
+    public ConnectionPool(String dbName, int readerCount, int busyTimeoutMs) throws SQLException {
+        String connectionAddress = "jdbc:sqlite:" + dbName;
+        this.acquireTimeoutMs = busyTimeoutMs;
+        this.writerLock = new ReentrantLock(true);
+        this.readers = new ArrayBlockingQueue<>(Math.max(1, readerCount));
+        this.allReaders = new ArrayList<>();
+
+        Connection writerConnection = DriverManager.getConnection(connectionAddress);
+        try (Statement stmt = writerConnection.createStatement()) {
+            // WAL is persistent in the database file, readers pick it up from there
+            stmt.execute("PRAGMA journal_mode = WAL;");
+            stmt.execute("PRAGMA busy_timeout = " + busyTimeoutMs + ";");
+            stmt.execute("PRAGMA foreign_keys = ON;");
+        }
+        this.writer = new PooledConnection(writerConnection, true);
+
+        for (int i = 0; i < Math.max(1, readerCount); i++) {
+            Connection readerConnection = DriverManager.getConnection(connectionAddress);
+            try (Statement stmt = readerConnection.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout = " + busyTimeoutMs + ";");
+                stmt.execute("PRAGMA foreign_keys = ON;");
+                stmt.execute("PRAGMA query_only = ON;");
+            }
+            PooledConnection reader = new PooledConnection(readerConnection, false);
+            allReaders.add(reader);
+            readers.add(reader);
+        }
+    }
+
+    /**
+     * Borrows a read-only connection. The caller must close it to hand it back.
+     */
+    public PooledConnection acquireReader() throws SQLException {
+        try {
+            PooledConnection reader = readers.poll(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+            if (reader == null) {
+                throw new SQLException("Timed out waiting for a reader connection");
+            }
+            return reader;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a reader connection", e);
+        }
+    }
+
+    /**
+     * Borrows the writer connection exclusively. The caller must close it to hand it back.
+     */
+    public PooledConnection acquireWriter() throws SQLException {
+        try {
+            if (!writerLock.tryLock(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for the writer connection");
+            }
+            return writer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the writer connection", e);
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        if (pooled.writer) {
+            writerLock.unlock();
+        } else {
+            readers.offer(pooled);
+        }
+    }
+
+    public void close() throws SQLException {
+        SQLException failure = null;
+        List<PooledConnection> all = new ArrayList<>(allReaders);
+        all.add(writer);
+        for (PooledConnection pooled : all) {
+            try {
+                pooled.closeConnection();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A connection borrowed from the pool. Statements returned by prepare are cached
+     * and must not be closed by the caller; only their result sets should be closed.
+     */
+    public class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final boolean writer;
+        private final Map<String, PreparedStatement> statements;
+
+        private PooledConnection(Connection connection, boolean writer) {
+            this.connection = connection;
+            this.writer = writer;
+            this.statements = new HashMap<>();
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            } else {
+                statement.clearParameters();
+            }
+            return statement;
+        }
+
+        private void closeConnection() throws SQLException {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+            statements.clear();
+            connection.close();
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+}
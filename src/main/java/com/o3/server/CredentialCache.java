@@ -0,0 +1,157 @@
+package com.o3.server;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers recently verified Basic credentials so that repeated requests skip the
+ * database lookup and the SHA-512 crypt. Passwords are never stored: an entry holds an
+ * HMAC of username and password under a key that only lives in this process.
+ * Entries expire after a fixed TTL and the cache never holds more than maxEntries.
+ */
+public class CredentialCache {
+
+    private static class Entry {
+        final byte[] digest;
+        final String nickname;
+        final long expiresAt;
+
+        Entry(byte[] digest, String nickname, long expiresAt) {
+            this.digest = digest;
+            this.nickname = nickname;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    public CredentialCache(long ttlSeconds, int maxEntries) {
+        this.entries = new ConcurrentHashMap<>();
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+        this.key = new SecretKeySpec(keyBytes, "HmacSHA256");
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.maxEntries = maxEntries;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private byte[] digest(String username, String password) {
+        Mac mac = macs.get();
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the user's nickname if these exact credentials were verified within the TTL,
+     * otherwise null
+     */
+    public String getVerifiedNickname(String username, String password) {
+        if (maxEntries <= 0) {
+            misses.increment();
+            return null;
+        }
+        Entry entry = entries.get(username);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(username, entry);
+            misses.increment();
+            return null;
+        }
+        if (!MessageDigest.isEqual(entry.digest, digest(username, password))) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.nickname;
+    }
+
+    /**
+     * Records credentials that were just verified against the database
+     */
+    public void put(String username, String password, String nickname) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        if (entries.size() >= maxEntries && !entries.containsKey(username)) {
+            evict();
+        }
+        entries.put(username, new Entry(digest(username, password), nickname, System.nanoTime() + ttlNanos));
+    }
+
+    /**
+     * Forgets the cached credentials of a user whose account has changed
+     */
+    public void invalidate(String username) {
+        entries.remove(username);
+    }
+
+    /**
+     * Drops expired entries; if the cache is still full, drops the entries closest to expiry
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> now - entry.expiresAt >= 0);
+        if (entries.size() < maxEntries) {
+            return;
+        }
+        // Drop everything in the last tenth of its lifetime so a full cache is not rescanned on every put
+        long cutoff = now + ttlNanos / 10;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            if (cutoff - it.next().getValue().expiresAt >= 0) {
+                it.remove();
+            }
+        }
+        if (entries.size() >= maxEntries) {
+            // All entries are young, fall back to dropping arbitrary ones
+            it = entries.entrySet().iterator();
+            while (it.hasNext() && entries.size() >= maxEntries) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,91 @@
+package com.o3.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams newly stored and updated records as Server-Sent Events. The handler only
+ * registers the connection with the RecordEventBus and returns, so an open stream does
+ * not hold a request worker; the bus writers send the response from then on.
+ */
+public class EventStreamHandler implements HttpHandler {
+    // Clients reconnect after this many milliseconds when the stream drops
+    private static final byte[] OPENING_FRAME = "retry: 5000\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final RecordEventBus eventBus;
+
+    public EventStreamHandler(RecordEventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    /**
+     * Writes one event stream response. Headers go out with the first frame, which the bus
+     * writes after the handler has returned.
+     */
+    private static class ExchangeSink implements RecordEventBus.Sink {
+        private final HttpExchange exchange;
+        private OutputStream outputStream;
+
+        ExchangeSink(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void write(byte[] frame) throws IOException {
+            if (outputStream == null) {
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.sendResponseHeaders(200, 0);
+                outputStream = new BufferedOutputStream(exchange.getResponseBody());
+            }
+            outputStream.write(frame);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (outputStream != null) {
+                outputStream.flush();
+            }
+        }
+
+        @Override
+        public void close() {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Log.debug("Event stream request handled: {}", exchange.getRequestMethod());
+
+        // Drain any request body without buffering it
+        try (InputStream body = exchange.getRequestBody()) {
+            body.transferTo(OutputStream.nullOutputStream());
+        }
+
+        if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+            sendResponse(exchange, 400, "Not supported");
+            return;
+        }
+
+        if (!eventBus.subscribe(new ExchangeSink(exchange), OPENING_FRAME)) {
+            exchange.getResponseHeaders().set("Retry-After", "30");
+            sendResponse(exchange, 503, "Too many event stream subscribers");
+        }
+    }
+
+    private void sendResponse(HttpExchange exchange, int code, String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(bytes);
+        outputStream.flush();
+        outputStream.close();
+    }
+}
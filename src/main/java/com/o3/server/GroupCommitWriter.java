@@ -0,0 +1,211 @@
+package com.o3.server;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Collects inserts from many request threads and commits them on the writer connection
+ * in one transaction per batch, so a burst of N inserts pays for one fsync instead of N.
+ * A batch is closed when it holds maxBatchSize items or maxDelayMs after its first item
+ * arrived. Callers block until the transaction holding their insert has committed, or
+ * fail after COMMIT_TIMEOUT_SECONDS; an insert that timed out may still commit later.
+ */
+public class GroupCommitWriter<T> {
+    // Far above the busy timeout of the writer connection, only hit if the committer is stuck
+    private static final long COMMIT_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Inserts one item on the writer connection inside the current transaction and
+     * returns its generated id
+     */
+    public interface Inserter<T> {
+        int insert(ConnectionPool.PooledConnection writer, T item) throws SQLException;
+    }
+
+    private static class PendingInsert<T> {
+        final T item;
+        final CompletableFuture<Integer> result;
+
+        PendingInsert(T item) {
+            this.item = item;
+            this.result = new CompletableFuture<>();
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final Inserter<T> inserter;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingInsert<T>> queue;
+    private final Thread committer;
+    private volatile boolean running;
+
+    public GroupCommitWriter(ConnectionPool pool, Inserter<T> inserter, int maxBatchSize, long maxDelayMs) {
+        this.pool = pool;
+        this.inserter = inserter;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMs));
+        this.queue = new LinkedBlockingQueue<>();
+        this.running = true;
+        this.committer = new Thread(this::run, "group-commit-writer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Queues an insert and waits until it is durably committed
+     *
+     * @return the generated id of the inserted row
+     */
+    public int insert(T item) throws SQLException {
+        if (!running) {
+            throw new SQLException("Write pipeline is closed");
+        }
+        PendingInsert<T> pending = new PendingInsert<>(item);
+        queue.add(pending);
+        return await(pending.result);
+    }
+
+    private static int await(CompletableFuture<Integer> result) throws SQLException {
+        try {
+            return result.get(COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new SQLException("Timed out waiting for commit", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for commit", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Insert failed", e.getCause());
+        }
+    }
+
+    private void run() {
+        List<PendingInsert<T>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingInsert<T> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+                commit(batch);
+            } catch (InterruptedException e) {
+                // Nobody interrupts the committer on purpose; keep draining until closed
+            } catch (Throwable t) {
+                // The committer must survive anything, or every later insert would wait in vain
+                Log.error("Group commit failed: {}", t.toString(), t);
+                for (PendingInsert<T> pending : batch) {
+                    pending.result.completeExceptionally(t);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+
+        // Anything queued while close() raced with insert() can no longer be committed
+        PendingInsert<T> late;
+        while ((late = queue.poll()) != null) {
+            late.result.completeExceptionally(new SQLException("Write pipeline is closed"));
+        }
+    }
+
+    /**
+     * Fills the batch with whatever arrives before it is full or the delay has expired
+     */
+    private void collect(List<PendingInsert<T>> batch) {
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !running) {
+                return;
+            }
+            PendingInsert<T> next;
+            try {
+                next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+
+    private void commit(List<PendingInsert<T>> batch) {
+        try (ConnectionPool.PooledConnection writer = pool.acquireWriter()) {
+            int[] ids = new int[batch.size()];
+            try {
+                insertInTransaction(writer, batch, ids);
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).result.complete(ids[i]);
+                }
+            } catch (SQLException e) {
+                if (batch.size() == 1) {
+                    batch.get(0).result.completeExceptionally(e);
+                    return;
+                }
+                // One bad row must not fail its neighbours, retry each insert on its own
+                for (PendingInsert<T> pending : batch) {
+                    List<PendingInsert<T>> single = new ArrayList<>(1);
+                    single.add(pending);
+                    int[] id = new int[1];
+                    try {
+                        insertInTransaction(writer, single, id);
+                        pending.result.complete(id[0]);
+                    } catch (SQLException retryFailure) {
+                        pending.result.completeExceptionally(retryFailure);
+                    }
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            for (PendingInsert<T> pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void insertInTransaction(ConnectionPool.PooledConnection writer, List<PendingInsert<T>> batch,
+                                     int[] ids) throws SQLException {
+        Connection connection = writer.getConnection();
+        connection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                ids[i] = inserter.insert(writer, batch.get(i).item);
+            }
+            connection.commit();
+        } catch (Throwable t) {
+            // Restoring auto-commit below would commit whatever was inserted so far
+            connection.rollback();
+            throw t;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Stops accepting inserts, commits everything already queued and stops the committer thread
+     */
+    public void close() {
+        running = false;
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.o3.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import org.json.JSONException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Content-Encoding support: picks a response encoding from Accept-Encoding, compresses
+ * response bodies on the fly and decodes compressed request bodies.
+ */
+public final class HttpCompression {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private HttpCompression() {
+    }
+
+    /**
+     * Returns "gzip" or "deflate" if the client accepts it, preferring gzip, or null for an
+     * uncompressed response. Marks the response as varying by Accept-Encoding either way.
+     */
+    public static String negotiate(HttpExchange exchange) {
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept == null) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        for (String item : accept.split(",")) {
+            String[] parts = item.trim().split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (isRefused(parts)) {
+                continue;
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip") || coding.equals("*")) {
+                gzip = true;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = true;
+            }
+        }
+        return gzip ? GZIP : deflate ? DEFLATE : null;
+    }
+
+    /**
+     * True if the parameters of an Accept-Encoding item include q=0
+     */
+    private static boolean isRefused(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compresses a complete body in memory, for responses sent with a Content-Length
+     */
+    public static byte[] encode(byte[] body, String encoding) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (OutputStream out = GZIP.equals(encoding) ? new GZIPOutputStream(buffer)
+                                                      : new DeflaterOutputStream(buffer)) {
+            out.write(body);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Returns the request body decoded according to its Content-Encoding, or null if the
+     * encoding is not supported. Corrupt compressed data surfaces as a JSONException while
+     * reading, so parsers report it like any other malformed body.
+     */
+    public static InputStream requestBody(HttpExchange exchange) {
+        InputStream body = exchange.getRequestBody();
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        if (encoding == null || encoding.trim().equalsIgnoreCase("identity")) {
+            return body;
+        }
+        encoding = encoding.trim().toLowerCase(Locale.ROOT);
+        if (encoding.equals(GZIP) || encoding.equals("x-gzip") || encoding.equals(DEFLATE)) {
+            return new DecodingInputStream(body, encoding.equals(DEFLATE) ? DEFLATE : GZIP);
+        }
+        return null;
+    }
+
+    /**
+     * Inflates lazily, so reading the gzip header happens inside the parser like the rest
+     */
+    private static class DecodingInputStream extends InputStream {
+        private final InputStream raw;
+        private final String encoding;
+        private InputStream decoded;
+
+        DecodingInputStream(InputStream raw, String encoding) {
+            this.raw = raw;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                if (decoded == null) {
+                    decoded = encoding.equals(GZIP) ? new GZIPInputStream(raw, BUFFER_SIZE)
+                                                    : new InflaterInputStream(raw);
+                }
+                return decoded.read(buffer, offset, length);
+            } catch (ZipException | EOFException e) {
+                throw new JSONException("Invalid " + encoding + " request body: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            raw.close();
+        }
+    }
+
+    /**
+     * A response body that is compressed with the negotiated encoding once it grows past a
+     * threshold. Until then it is buffered; a response that ends below the threshold is
+     * sent uncompressed with a Content-Length, as compressing it would not pay off. Larger
+     * responses use chunked transfer encoding. Headers other than Content-Encoding must be
+     * set before the first write. A strong ETag set by the handler names the uncompressed
+     * body and gets the encoding appended when the body is actually compressed.
+     */
+    public static class ResponseStream extends OutputStream {
+        private final HttpExchange exchange;
+        private final int status;
+        private final String encoding;
+        private final byte[] pending;
+        private int pendingLength;
+        private OutputStream out;
+
+        /**
+         * A null encoding or a negative threshold disables compression. Thresholds above
+         * 16 KiB are capped.
+         */
+        public ResponseStream(HttpExchange exchange, int status, String encoding, int threshold) {
+            this.exchange = exchange;
+            this.status = status;
+            this.encoding = threshold < 0 ? null : encoding;
+            this.pending = new byte[Math.max(0, Math.min(threshold, BUFFER_SIZE))];
+            this.pendingLength = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (out == null && pendingLength < pending.length) {
+                pending[pendingLength++] = (byte) b;
+                return;
+            }
+            if (out == null) {
+                start();
+            }
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (out == null) {
+                if (pendingLength + length <= pending.length) {
+                    System.arraycopy(bytes, offset, pending, pendingLength, length);
+                    pendingLength += length;
+                    return;
+                }
+                start();
+            }
+            out.write(bytes, offset, length);
+        }
+
+        private void start() throws IOException {
+            OutputStream raw = exchange.getResponseBody();
+            if (encoding != null) {
+                Headers headers = exchange.getResponseHeaders();
+                headers.set("Content-Encoding", encoding);
+                String etag = headers.getFirst("ETag");
+                if (etag != null && etag.length() > 1 && etag.startsWith("\"") && etag.endsWith("\"")) {
+                    headers.set("ETag", etag.substring(0, etag.length() - 1) + "-" + encoding + "\"");
+                }
+            }
+            exchange.sendResponseHeaders(status, 0);
+            if (GZIP.equals(encoding)) {
+                out = new GZIPOutputStream(raw, BUFFER_SIZE, true);
+            } else if (DEFLATE.equals(encoding)) {
+                out = new DeflaterOutputStream(new BufferedOutputStream(raw, BUFFER_SIZE), true);
+            } else {
+                out = new BufferedOutputStream(raw, BUFFER_SIZE);
+            }
+            out.write(pending, 0, pendingLength);
+            pendingLength = 0;
+        }
+
+        /**
+         * Pushes everything written so far to the client once the response has started;
+         * below the threshold the body stays buffered
+         */
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null) {
+                exchange.sendResponseHeaders(status, pendingLength == 0 ? -1 : pendingLength);
+                OutputStream raw = exchange.getResponseBody();
+                raw.write(pending, 0, pendingLength);
+                raw.close();
+                return;
+            }
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.o3.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one HTTP exchange, recorded by MetricsFilter around
+ * authentication and the handler
+ */
+@Name("com.o3.server.HttpExchange")
+@Label("HTTP Exchange")
+@Category({"O3 Server", "HTTP"})
+@Description("An HTTP request handled by the server, from dispatch to the end of the response")
+public class HttpExchangeEvent extends Event {
+    @Label("Method")
+    String method;
+
+    @Label("Route")
+    @Description("Context the request was dispatched to")
+    String route;
+
+    @Label("Path")
+    String path;
+
+    @Label("Status")
+    int status;
+
+    @Label("Request Size")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    long responseBytes;
+}
@@ -0,0 +1,560 @@
+package com.o3.server;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pull parser that reads JSON straight from the bytes of a request body, without building
+ * a String of the whole body or a JSONObject tree. Values are consumed one token at a
+ * time; callers decode the fields they know into their own objects and skip the rest.
+ *
+ * Malformed input throws a JSONException as soon as it is seen. Reading more than
+ * maxBytes since the reader was created (or since the last resetLimit) throws a
+ * TooLargeException, so oversized bodies are rejected without being buffered.
+ */
+public class JsonReader {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    /**
+     * Thrown when the input exceeds the configured size limit
+     */
+    public static class TooLargeException extends JSONException {
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException(long maxBytes) {
+            super("Request body exceeds " + maxBytes + " bytes");
+        }
+    }
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_DEPTH = 64;
+
+    // What the reader expects next in the enclosing scope
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final InputStream in;
+    private final long maxBytes;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private long consumed;
+    private long limitBase;
+
+    private final int[] stack;
+    private int depth;
+    private Token peeked;
+    private boolean peekedBoolean;
+    private boolean lineDelimited;
+
+    // Bytes of the string or number being read, reused between values
+    private byte[] scratch;
+    private int scratchLength;
+
+    public JsonReader(InputStream in, long maxBytes) {
+        this.in = in;
+        this.maxBytes = maxBytes;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.stack = new int[MAX_DEPTH + 1];
+        this.scratch = new byte[256];
+        beginDocument();
+    }
+
+    /**
+     * Starts reading the next top-level value, for inputs holding several documents
+     * such as newline-delimited JSON
+     */
+    public void beginDocument() {
+        stack[0] = EMPTY_DOCUMENT;
+        depth = 1;
+        peeked = null;
+    }
+
+    /**
+     * Treats a line break inside an object or array as an error, so that a truncated line
+     * of newline-delimited JSON does not swallow the line after it
+     */
+    public void setLineDelimited(boolean lineDelimited) {
+        this.lineDelimited = lineDelimited;
+    }
+
+    /**
+     * Restarts the size limit at the current position, e.g. at the start of a bulk item
+     */
+    public void resetLimit() {
+        limitBase = consumed;
+    }
+
+    /**
+     * Checks that nothing but whitespace follows the top-level value
+     */
+    public void endDocument() throws IOException {
+        if (peek() != Token.END_DOCUMENT) {
+            throw syntaxError("Unexpected content after the JSON document");
+        }
+    }
+
+    /**
+     * Discards the rest of the current line, used to resynchronize after a malformed line.
+     * Bytes skipped here do not count against the size limit.
+     */
+    public void skipLine() throws IOException {
+        // Nothing to skip if the error was the line break itself
+        boolean atLineStart = position > 0 && buffer[position - 1] == '\n';
+        while (!atLineStart) {
+            if (position == limit && !fill()) {
+                break;
+            }
+            if (buffer[position++] == '\n') {
+                break;
+            }
+        }
+        beginDocument();
+    }
+
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+
+        int c;
+        switch (stack[depth - 1]) {
+            case EMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                return peekName(c);
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or '}'");
+                }
+                return peekName(nextNonWhitespace());
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                return peekValue(nextNonWhitespace());
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                return peekValue(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                return peekValue(nextNonWhitespace());
+            case EMPTY_DOCUMENT:
+                c = nextNonWhitespace();
+                if (c == -1) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                return peekValue(c);
+            default:
+                if (nextNonWhitespace() == -1) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                unread();
+                throw syntaxError("Unexpected content after the JSON document");
+        }
+    }
+
+    private Token peekName(int c) throws IOException {
+        if (c != '"') {
+            throw syntaxError("Expected a quoted name");
+        }
+        stack[depth - 1] = DANGLING_NAME;
+        return peeked = Token.NAME;
+    }
+
+    private Token peekValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                return peeked = Token.STRING;
+            case 't':
+                expectLiteral("rue");
+                peekedBoolean = true;
+                return peeked = Token.BOOLEAN;
+            case 'f':
+                expectLiteral("alse");
+                peekedBoolean = false;
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                expectLiteral("ull");
+                return peeked = Token.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber(c);
+                    return peeked = Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    public String nextString() throws IOException {
+        expect(Token.STRING);
+        return readString();
+    }
+
+    public double nextDouble() throws IOException {
+        expect(Token.NUMBER);
+        double value = parseDouble();
+        if (Double.isInfinite(value)) {
+            throw syntaxError("Number out of range");
+        }
+        return value;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return peekedBoolean;
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Skips the next value, including everything nested in it
+     */
+    public void skipValue() throws IOException {
+        int nested = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    nested++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    nested++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    nested--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    nested--;
+                    break;
+                case NAME:
+                case STRING:
+                    expect(peeked);
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of input");
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while (nested > 0);
+    }
+
+    private void expect(Token token) throws IOException {
+        if (peek() != token) {
+            throw syntaxError("Expected " + token + " but was " + peeked);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth > MAX_DEPTH) {
+            throw syntaxError("Nesting deeper than " + MAX_DEPTH);
+        }
+        stack[depth++] = scope;
+    }
+
+    public JSONException syntaxError(String message) {
+        return new JSONException(message + " at byte " + consumed);
+    }
+
+    // Input
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            position = 0;
+            limit = 0;
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        if (++consumed - limitBase > maxBytes) {
+            throw new TooLargeException(maxBytes);
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Puts back the byte just read; always possible because fill only runs when the
+     * buffer is exhausted, before a read
+     */
+    private void unread() {
+        position--;
+        consumed--;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == '\n' && lineDelimited && depth > 1) {
+                throw syntaxError("Unexpected end of line");
+            }
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw syntaxError("Invalid literal");
+            }
+        }
+    }
+
+    // Strings
+
+    private String readString() throws IOException {
+        scratchLength = 0;
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return new String(scratch, 0, scratchLength, StandardCharsets.UTF_8);
+            }
+            if (c == '\\') {
+                readEscape();
+            } else if (c == -1) {
+                throw syntaxError("Unterminated string");
+            } else if (c < 0x20) {
+                throw syntaxError("Unescaped control character in string");
+            } else {
+                append(c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                // An escaped quote must not end the string
+                if (read() == -1) {
+                    throw syntaxError("Unterminated string");
+                }
+            } else if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                append(c);
+                break;
+            case 'b':
+                append('\b');
+                break;
+            case 'f':
+                append('\f');
+                break;
+            case 'n':
+                append('\n');
+                break;
+            case 'r':
+                append('\r');
+                break;
+            case 't':
+                append('\t');
+                break;
+            case 'u':
+                int codePoint = readHex();
+                if (Character.isHighSurrogate((char) codePoint)) {
+                    // A surrogate pair is two escapes; combine them into one code point
+                    if (read() != '\\' || read() != 'u') {
+                        throw syntaxError("Unpaired surrogate escape");
+                    }
+                    int low = readHex();
+                    if (!Character.isLowSurrogate((char) low)) {
+                        throw syntaxError("Unpaired surrogate escape");
+                    }
+                    codePoint = Character.toCodePoint((char) codePoint, (char) low);
+                }
+                appendCodePoint(codePoint);
+                break;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private int readHex() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit == -1) {
+                throw syntaxError("Invalid unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private void appendCodePoint(int codePoint) {
+        if (codePoint < 0x80) {
+            append(codePoint);
+        } else if (codePoint < 0x800) {
+            append(0xc0 | (codePoint >> 6));
+            append(0x80 | (codePoint & 0x3f));
+        } else if (codePoint < 0x10000) {
+            append(0xe0 | (codePoint >> 12));
+            append(0x80 | ((codePoint >> 6) & 0x3f));
+            append(0x80 | (codePoint & 0x3f));
+        } else {
+            append(0xf0 | (codePoint >> 18));
+            append(0x80 | ((codePoint >> 12) & 0x3f));
+            append(0x80 | ((codePoint >> 6) & 0x3f));
+            append(0x80 | (codePoint & 0x3f));
+        }
+    }
+
+    private void append(int b) {
+        if (scratchLength == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratch.length * 2);
+        }
+        scratch[scratchLength++] = (byte) b;
+    }
+
+    // Numbers
+
+    /**
+     * Reads a number following the JSON grammar into scratch, leaving the byte after it unread
+     */
+    private void readNumber(int first) throws IOException {
+        scratchLength = 0;
+        int c = first;
+        if (c == '-') {
+            append(c);
+            c = read();
+        }
+        if (c == '0') {
+            append(c);
+            c = read();
+        } else if (c >= '1' && c <= '9') {
+            c = appendDigits(c);
+        } else {
+            throw syntaxError("Invalid number");
+        }
+        if (c == '.') {
+            append(c);
+            c = read();
+            if (c < '0' || c > '9') {
+                throw syntaxError("Invalid number");
+            }
+            c = appendDigits(c);
+        }
+        if (c == 'e' || c == 'E') {
+            append(c);
+            c = read();
+            if (c == '+' || c == '-') {
+                append(c);
+                c = read();
+            }
+            if (c < '0' || c > '9') {
+                throw syntaxError("Invalid number");
+            }
+            c = appendDigits(c);
+        }
+        if (c != -1) {
+            unread();
+        }
+    }
+
+    private int appendDigits(int c) throws IOException {
+        while (c >= '0' && c <= '9') {
+            append(c);
+            c = read();
+        }
+        return c;
+    }
+
+    private double parseDouble() {
+        return Double.parseDouble(new String(scratch, 0, scratchLength, StandardCharsets.US_ASCII));
+    }
+}
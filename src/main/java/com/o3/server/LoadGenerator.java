@@ -0,0 +1,554 @@
+package com.o3.server;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a mix of /datarecord and /registration traffic against a running server and
+ * reports throughput and latency percentiles.
+ * <p>
+ * Requests are started on a fixed schedule (open loop) regardless of how fast the server
+ * answers, and latency is measured from the time a request was scheduled to start rather
+ * than from when it was actually sent. A server that stalls therefore shows up in the
+ * percentiles with the full delay every scheduled request saw, instead of as a handful of
+ * slow requests (coordinated omission). The latency from the actual send is reported next
+ * to it for comparison.
+ */
+public final class LoadGenerator {
+
+    private static final String USAGE = String.join("\n",
+        "Usage: LoadGenerator <base-url> [options]",
+        "  --rate=N               requests started per second (default 200)",
+        "  --duration=S           measured seconds (default 30)",
+        "  --warmup=S             seconds of load before measuring (default 5)",
+        "  --mix=op:w,...         weights of get, get-record, post, put and register",
+        "                         (default get:60,get-record:15,post:20,put:5)",
+        "  --users=N              users registered and used for requests (default 8)",
+        "  --seed-records=N       records uploaded per user before the run (default 50)",
+        "  --page-size=N          limit of collection GETs (default 100)",
+        "  --max-in-flight=N      outstanding requests before the schedule waits (default 1024)",
+        "  --keystore=PATH        trust the certificate in the server's keystore",
+        "  --keystore-password=P  password of that keystore",
+        "  --insecure             trust any certificate and host name (local self-signed keystores)");
+
+    private static final String PASSWORD = "load-password";
+
+    private static final String[] OPERATIONS = {"get", "get-record", "post", "put", "register"};
+
+    private static final String[] TARGET_BODIES = {
+        "Mars", "Ceres", "Vesta", "Pallas", "Hygiea", "Jupiter", "Saturn", "Moon 301", "Eros", "Apophis"
+    };
+
+    private static final Object[][] OBSERVATORIES = {
+        {"Mauna Kea", 19.8207, -155.4681},
+        {"Paranal", -24.6272, -70.4042},
+        {"La Silla", -29.2567, -70.7346},
+        {"Kitt Peak", 31.9583, -111.5967},
+        {"Roque de los Muchachos", 28.7606, -17.8816},
+        {"Siding Spring", -31.2733, 149.0617},
+        {"Mets\u00e4hovi", 60.2178, 24.3939},
+        {"Oulu", 65.0121, 25.4651}
+    };
+
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    /**
+     * Results of one kind of request
+     */
+    private static class Stats {
+        final Histogram corrected = new Histogram();
+        final Histogram uncorrected = new Histogram();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LongAdder failures = new LongAdder();
+
+        void record(int status, long scheduledNanos, long sentNanos, long endNanos) {
+            corrected.record(endNanos - scheduledNanos);
+            uncorrected.record(endNanos - sentNanos);
+            statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * A registered user and the records it owns, which PUT requests update
+     */
+    private static class LoadUser {
+        final String authorization;
+        final List<Integer> recordIds = new ArrayList<>();
+
+        LoadUser(String username, String password) {
+            String credentials = username + ":" + password;
+            this.authorization = "Basic " + Base64.getEncoder()
+                .encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private final HttpClient client;
+    private final URI baseUri;
+    private final Map<String, String> options;
+    private final String runId;
+    private final List<LoadUser> users;
+    private final AtomicInteger registrations;
+    private final int pageSize;
+    private volatile int maxRecordId;
+
+    private LoadGenerator(HttpClient client, URI baseUri, Map<String, String> options) {
+        this.client = client;
+        this.baseUri = baseUri;
+        this.options = options;
+        this.runId = Long.toString(System.currentTimeMillis(), 36);
+        this.users = new ArrayList<>();
+        this.registrations = new AtomicInteger();
+        this.pageSize = intOption("page-size", 100);
+        this.maxRecordId = 1;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args[0].startsWith("--")) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        try {
+            Map<String, String> options = parseOptions(args);
+            URI baseUri = URI.create(args[0].endsWith("/") ? args[0].substring(0, args[0].length() - 1) : args[0]);
+            LoadGenerator generator = new LoadGenerator(buildClient(options), baseUri, options);
+            generator.setUp();
+            generator.run();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (Exception e) {
+            Log.error("Load generation failed: {}", e.getMessage(), e);
+            System.exit(1);
+        } finally {
+            Log.shutdown();
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for --" + name + ": " + value);
+        }
+    }
+
+    private static HttpClient buildClient(Map<String, String> options) throws IOException, GeneralSecurityException {
+        SSLContext sslContext;
+        if (options.containsKey("insecure")) {
+            // Must be set before the HTTP client implementation is loaded
+            System.setProperty("jdk.internal.httpclient.disableHostnameVerification", "true");
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[] {new TrustAllManager()}, null);
+        } else if (options.containsKey("keystore")) {
+            String password = options.getOrDefault("keystore-password", "");
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            try (InputStream in = new FileInputStream(options.get("keystore"))) {
+                keyStore.load(in, password.toCharArray());
+            }
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(keyStore);
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        } else {
+            sslContext = SSLContext.getDefault();
+        }
+        return HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .sslContext(sslContext)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    }
+
+    /**
+     * Registers the users and uploads their records, so GET and PUT have data to work on
+     */
+    private void setUp() throws IOException, InterruptedException {
+        int userCount = Math.max(1, intOption("users", 8));
+        int seedRecords = intOption("seed-records", 50);
+        for (int i = 0; i < userCount; i++) {
+            String username = "load-" + runId + "-" + i;
+            int status = client.send(registration(username), HttpResponse.BodyHandlers.discarding()).statusCode();
+            if (status != 201) {
+                throw new IOException("Registering " + username + " failed with status " + status);
+            }
+            LoadUser user = new LoadUser(username, PASSWORD);
+            users.add(user);
+
+            if (seedRecords <= 0) {
+                continue;
+            }
+            JSONArray records = new JSONArray();
+            for (int j = 0; j < seedRecords; j++) {
+                records.put(randomRecord());
+            }
+            HttpResponse<String> response = client.send(request("/datarecord", user)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(records.toString()))
+                .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IOException("Seeding records failed with status " + response.statusCode());
+            }
+            try {
+                JSONArray results = new JSONArray(response.body());
+                for (int j = 0; j < results.length(); j++) {
+                    JSONObject result = results.getJSONObject(j);
+                    if (result.optInt("status") == 200) {
+                        int id = result.getInt("id");
+                        user.recordIds.add(id);
+                        maxRecordId = Math.max(maxRecordId, id);
+                    }
+                }
+            } catch (JSONException e) {
+                throw new IOException("Unexpected bulk upload response: " + e.getMessage());
+            }
+        }
+        Log.info("Registered {} users with {} records each", userCount, seedRecords);
+    }
+
+    private void run() throws InterruptedException {
+        int rate = intOption("rate", 200);
+        int duration = intOption("duration", 30);
+        int warmup = intOption("warmup", 5);
+        int maxInFlight = intOption("max-in-flight", 1024);
+        if (rate <= 0 || duration <= 0 || warmup < 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("Rate, duration and max-in-flight must be positive");
+        }
+        int[] weights = parseMix(options.getOrDefault("mix", "get:60,get-record:15,post:20,put:5"));
+        int totalWeight = 0;
+        for (int weight : weights) {
+            totalWeight += weight;
+        }
+
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        for (String operation : OPERATIONS) {
+            stats.put(operation, new Stats());
+        }
+
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = (long) rate * (warmup + duration);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+        Log.info("Sending {} requests per second for {} s", rate, warmup + duration);
+
+        for (long i = 0; i < total; i++) {
+            long scheduled = start + i * interval;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // When the server falls this far behind the schedule waits, but latency is
+            // still measured from the scheduled time
+            inFlight.acquire();
+
+            String operation = pickOperation(weights, totalWeight);
+            HttpRequest request = buildRequest(operation);
+            Stats operationStats = scheduled >= measureFrom ? stats.get(operation) : null;
+            long sent = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    long end = System.nanoTime();
+                    inFlight.release();
+                    if (operationStats == null) {
+                        return;
+                    }
+                    if (error != null) {
+                        operationStats.failures.increment();
+                    } else {
+                        operationStats.record(response.statusCode(), scheduled, sent, end);
+                    }
+                });
+        }
+        if (!inFlight.tryAcquire(maxInFlight, 60, TimeUnit.SECONDS)) {
+            Log.warn("Gave up waiting for {} outstanding requests", maxInFlight - inFlight.availablePermits());
+        }
+        report(stats, duration);
+    }
+
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[OPERATIONS.length];
+        for (String item : mix.split(",")) {
+            String[] parts = item.trim().split(":");
+            int index = -1;
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                if (OPERATIONS[i].equals(parts[0].trim())) {
+                    index = i;
+                }
+            }
+            if (index < 0 || parts.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + item);
+            }
+            try {
+                weights[index] = Math.max(0, Integer.parseInt(parts[1].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid mix entry: " + item);
+            }
+        }
+        for (int weight : weights) {
+            if (weight > 0) {
+                return weights;
+            }
+        }
+        throw new IllegalArgumentException("The mix must give some operation a positive weight");
+    }
+
+    private static String pickOperation(int[] weights, int totalWeight) {
+        int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < weights.length; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return OPERATIONS[i];
+            }
+        }
+        return OPERATIONS[0];
+    }
+
+    private HttpRequest buildRequest(String operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LoadUser user = users.get(random.nextInt(users.size()));
+        switch (operation) {
+            case "get-record":
+                return request("/datarecord/" + (1 + random.nextInt(maxRecordId)), user).GET().build();
+            case "post":
+                return request("/datarecord", user)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(randomRecord().toString()))
+                    .build();
+            case "put":
+                if (!user.recordIds.isEmpty()) {
+                    JSONObject record = randomRecord();
+                    record.put("update_reason", "Refined orbit fit");
+                    int id = user.recordIds.get(random.nextInt(user.recordIds.size()));
+                    return request("/datarecord/" + id, user)
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString(record.toString()))
+                        .build();
+                }
+                return request("/datarecord?limit=" + pageSize, user).GET().build();
+            case "register":
+                return registration("load-" + runId + "-r" + registrations.incrementAndGet());
+            default:
+                // Mostly paging through recent records, sometimes a filtered query
+                if (random.nextInt(4) == 0) {
+                    String body = TARGET_BODIES[random.nextInt(TARGET_BODIES.length)].replace(" ", "%20");
+                    return request("/datarecord?target_body_name=" + body + "&limit=" + pageSize, user).GET().build();
+                }
+                int afterId = Math.max(0, maxRecordId - pageSize - random.nextInt(Math.max(1, maxRecordId)));
+                return request("/datarecord?after_id=" + afterId + "&limit=" + pageSize, user).GET().build();
+        }
+    }
+
+    private HttpRequest.Builder request(String path, LoadUser user) {
+        return HttpRequest.newBuilder(baseUri.resolve(path))
+            .timeout(Duration.ofSeconds(60))
+            .header("Authorization", user.authorization);
+    }
+
+    private HttpRequest registration(String username) {
+        JSONObject registration = new JSONObject();
+        registration.put("username", username);
+        registration.put("password", PASSWORD);
+        registration.put("email", username + "@example.com");
+        registration.put("nickname", username);
+        return HttpRequest.newBuilder(baseUri.resolve("/registration"))
+            .timeout(Duration.ofSeconds(60))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(registration.toString()))
+            .build();
+    }
+
+    /**
+     * An observation like the ones clients send: orbital elements and/or a state vector
+     * and one to three observatories at real sites
+     */
+    private static JSONObject randomRecord() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        JSONObject record = new JSONObject();
+        String target = TARGET_BODIES[random.nextInt(TARGET_BODIES.length)];
+        record.put("target_body_name", target);
+        record.put("center_body_name", target.startsWith("Moon") ? "Earth" : "Sun");
+        record.put("epoch", String.format(Locale.ROOT, "2025-%02d-%02dT%02d:00:00Z",
+            1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24)));
+
+        int shape = random.nextInt(3);
+        if (shape != 1) {
+            JSONObject elements = new JSONObject();
+            elements.put("semi_major_axis_au", 0.8 + random.nextDouble() * 5);
+            elements.put("eccentricity", random.nextDouble() * 0.3);
+            elements.put("inclination_deg", random.nextDouble() * 30);
+            elements.put("longitude_ascending_node_deg", random.nextDouble() * 360);
+            elements.put("argument_of_periapsis_deg", random.nextDouble() * 360);
+            elements.put("mean_anomaly_deg", random.nextDouble() * 360);
+            record.put("orbital_elements", elements);
+        }
+        if (shape != 0) {
+            JSONObject vector = new JSONObject();
+            vector.put("position_au", new JSONArray(new double[] {
+                random.nextDouble(-3, 3), random.nextDouble(-3, 3), random.nextDouble(-0.5, 0.5)}));
+            vector.put("velocity_au_per_day", new JSONArray(new double[] {
+                random.nextDouble(-0.02, 0.02), random.nextDouble(-0.02, 0.02), random.nextDouble(-0.002, 0.002)}));
+            record.put("state_vector", vector);
+        }
+
+        JSONObject metadata = new JSONObject();
+        metadata.put("record_payload", "Astrometric observation of " + target);
+        JSONArray observatories = new JSONArray();
+        int count = 1 + random.nextInt(3);
+        int first = random.nextInt(OBSERVATORIES.length);
+        for (int i = 0; i < count; i++) {
+            Object[] site = OBSERVATORIES[(first + i) % OBSERVATORIES.length];
+            JSONObject observatory = new JSONObject();
+            observatory.put("observatory_name", site[0]);
+            observatory.put("latitude", site[1]);
+            observatory.put("longitude", site[2]);
+            observatories.put(observatory);
+        }
+        metadata.put("observatory", observatories);
+        record.put("metadata", metadata);
+        return record;
+    }
+
+    private static void report(Map<String, Stats> stats, int duration) {
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-11s %9s %9s %9s %9s %9s %9s %9s  %s",
+            "operation", "requests", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "p99 raw", "statuses"));
+        Stats all = new Stats();
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats operation = entry.getValue();
+            if (operation.corrected.getCount() == 0 && operation.failures.sum() == 0) {
+                continue;
+            }
+            printRow(entry.getKey(), operation, duration);
+            merge(operation, all);
+        }
+        printRow("total", all, duration);
+        System.out.println();
+        System.out.println("Latencies are measured from the scheduled start of each request; "
+            + "\"p99 raw\" is measured from the actual send.");
+    }
+
+    private static void printRow(String name, Stats stats, int duration) {
+        Map<Integer, Long> statuses = new TreeMap<>();
+        stats.statuses.forEach((status, count) -> statuses.put(status, count.sum()));
+        StringBuilder statusText = new StringBuilder();
+        statuses.forEach((status, count) -> statusText.append(status).append('=').append(count).append(' '));
+        if (stats.failures.sum() > 0) {
+            statusText.append("failed=").append(stats.failures.sum());
+        }
+        long count = stats.corrected.getCount();
+        StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%-11s %9d %9.1f", name, count,
+            (double) (count + stats.failures.sum()) / duration));
+        for (double percentile : PERCENTILES) {
+            row.append(String.format(Locale.ROOT, " %9.2f", millis(stats.corrected.percentile(percentile))));
+        }
+        row.append(String.format(Locale.ROOT, " %9.2f %9.2f  %s", millis(stats.corrected.getMax()),
+            millis(stats.uncorrected.percentile(0.99)), statusText.toString().trim()));
+        System.out.println(row);
+    }
+
+    /**
+     * Adds one operation's results to the totals
+     */
+    private static void merge(Stats from, Stats into) {
+        from.statuses.forEach((status, count) ->
+            into.statuses.computeIfAbsent(status, s -> new LongAdder()).add(count.sum()));
+        into.failures.add(from.failures.sum());
+        into.corrected.add(from.corrected);
+        into.uncorrected.add(from.uncorrected);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * Accepts any server certificate, for servers running on a self-signed local keystore
+     */
+    private static class TrustAllManager extends X509ExtendedTrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
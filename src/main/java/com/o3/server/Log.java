@@ -0,0 +1,344 @@
+package com.o3.server;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous, level-filtered logging. Calls below the configured level (LOG_LEVEL,
+ * default INFO) return before touching anything, so they cost a comparison and no
+ * allocation. Enabled calls copy the message template and its arguments into a slot of a
+ * preallocated ring buffer; a single background thread formats them and writes them out
+ * in batches, flushing whenever the buffer runs empty. When the buffer is full messages
+ * are dropped and counted rather than blocking request threads.
+ *
+ * Messages use "{}" placeholders, e.g. Log.info("Database opened at {}", path).
+ */
+public final class Log {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static final int CAPACITY = 8192;
+    private static final long IDLE_PARK_NANOS = 5_000_000L;
+    private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A reusable ring buffer entry; published by writing sequence last
+     */
+    private static final class Slot {
+        volatile long sequence = -1;
+        Level level;
+        long timestamp;
+        String thread;
+        String message;
+        Object arg1;
+        Object arg2;
+        Object arg3;
+        Throwable error;
+    }
+
+    private static final Slot[] SLOTS = new Slot[CAPACITY];
+    private static final AtomicLong CLAIMED = new AtomicLong();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static volatile long consumed;
+    private static volatile boolean closed;
+    private static volatile Level threshold;
+
+    private static final Writer OUT = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), WRITER_BUFFER_SIZE);
+    private static final Writer ERR = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(FileDescriptor.err), StandardCharsets.UTF_8), WRITER_BUFFER_SIZE);
+    private static final Thread WRITER_THREAD;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            SLOTS[i] = new Slot();
+        }
+        threshold = parseLevel(ServerConfig.getString("LOG_LEVEL", "INFO"));
+
+        WRITER_THREAD = new Thread(Log::drainLoop, "log-writer");
+        WRITER_THREAD.setDaemon(true);
+        WRITER_THREAD.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::shutdown, "log-shutdown"));
+    }
+
+    private Log() {
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            // Can't log about the logger yet, the writer thread is not running
+            System.err.println("Ignoring invalid value for LOG_LEVEL: " + name);
+            return Level.INFO;
+        }
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0 && level != Level.OFF;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    /**
+     * Number of messages dropped because the ring buffer was full
+     */
+    public static long getDroppedCount() {
+        return DROPPED.sum();
+    }
+
+    public static void debug(String message) {
+        if (isEnabled(Level.DEBUG)) {
+            enqueue(Level.DEBUG, message, null, null, null, null);
+        }
+    }
+
+    public static void debug(String message, Object arg) {
+        if (isEnabled(Level.DEBUG)) {
+            enqueue(Level.DEBUG, message, arg, null, null, null);
+        }
+    }
+
+    public static void debug(String message, Object arg1, Object arg2) {
+        if (isEnabled(Level.DEBUG)) {
+            enqueue(Level.DEBUG, message, arg1, arg2, null, null);
+        }
+    }
+
+    public static void debug(String message, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(Level.DEBUG)) {
+            enqueue(Level.DEBUG, message, arg1, arg2, arg3, null);
+        }
+    }
+
+    public static void info(String message) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(Level.INFO, message, null, null, null, null);
+        }
+    }
+
+    public static void info(String message, Object arg) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(Level.INFO, message, arg, null, null, null);
+        }
+    }
+
+    public static void info(String message, Object arg1, Object arg2) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(Level.INFO, message, arg1, arg2, null, null);
+        }
+    }
+
+    public static void warn(String message) {
+        if (isEnabled(Level.WARN)) {
+            enqueue(Level.WARN, message, null, null, null, null);
+        }
+    }
+
+    public static void warn(String message, Object arg) {
+        if (isEnabled(Level.WARN)) {
+            enqueue(Level.WARN, message, arg, null, null, null);
+        }
+    }
+
+    public static void warn(String message, Object arg1, Object arg2) {
+        if (isEnabled(Level.WARN)) {
+            enqueue(Level.WARN, message, arg1, arg2, null, null);
+        }
+    }
+
+    public static void error(String message) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(Level.ERROR, message, null, null, null, null);
+        }
+    }
+
+    public static void error(String message, Object arg) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(Level.ERROR, message, arg, null, null, null);
+        }
+    }
+
+    public static void error(String message, Object arg1, Object arg2) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(Level.ERROR, message, arg1, arg2, null, null);
+        }
+    }
+
+    /**
+     * Logs the message followed by the stack trace of the error
+     */
+    public static void error(String message, Throwable error) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(Level.ERROR, message, null, null, null, error);
+        }
+    }
+
+    public static void error(String message, Object arg, Throwable error) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(Level.ERROR, message, arg, null, null, error);
+        }
+    }
+
+    private static void enqueue(Level level, String message, Object arg1, Object arg2, Object arg3,
+                                Throwable error) {
+        if (closed) {
+            // The writer thread is gone, write through so shutdown messages are not lost
+            synchronized (Log.class) {
+                try {
+                    Writer writer = level.compareTo(Level.WARN) >= 0 ? ERR : OUT;
+                    write(writer, level, System.currentTimeMillis(), Thread.currentThread().getName(),
+                          message, arg1, arg2, arg3, error);
+                    writer.flush();
+                } catch (IOException e) {
+                    // Nowhere left to report it
+                }
+            }
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = CLAIMED.get();
+            if (sequence - consumed >= CAPACITY) {
+                DROPPED.increment();
+                return;
+            }
+        } while (!CLAIMED.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = SLOTS[(int) (sequence % CAPACITY)];
+        slot.level = level;
+        slot.timestamp = System.currentTimeMillis();
+        slot.thread = Thread.currentThread().getName();
+        slot.message = message;
+        slot.arg1 = arg1;
+        slot.arg2 = arg2;
+        slot.arg3 = arg3;
+        slot.error = error;
+        slot.sequence = sequence;
+    }
+
+    private static void drainLoop() {
+        long reportedDrops = 0;
+        while (!closed) {
+            int written = drain();
+            long drops = DROPPED.sum();
+            if (drops != reportedDrops) {
+                try {
+                    write(ERR, Level.WARN, System.currentTimeMillis(), WRITER_THREAD.getName(),
+                          "{} log messages dropped, buffer full", drops - reportedDrops, null, null, null);
+                    written++;
+                } catch (IOException e) {
+                    // Ignore, stderr is gone
+                }
+                reportedDrops = drops;
+            }
+            if (written == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Writes every published entry and flushes; returns the number written
+     */
+    private static synchronized int drain() {
+        int written = 0;
+        boolean wroteOut = false;
+        boolean wroteErr = false;
+        try {
+            while (true) {
+                long next = consumed;
+                Slot slot = SLOTS[(int) (next % CAPACITY)];
+                if (slot.sequence != next) {
+                    break;
+                }
+                Writer writer = slot.level.compareTo(Level.WARN) >= 0 ? ERR : OUT;
+                write(writer, slot.level, slot.timestamp, slot.thread, slot.message,
+                      slot.arg1, slot.arg2, slot.arg3, slot.error);
+                if (writer == OUT) {
+                    wroteOut = true;
+                } else {
+                    wroteErr = true;
+                }
+                // Release references so logged objects can be collected
+                slot.message = null;
+                slot.arg1 = null;
+                slot.arg2 = null;
+                slot.arg3 = null;
+                slot.error = null;
+                consumed = next + 1;
+                written++;
+            }
+            if (wroteOut) {
+                OUT.flush();
+            }
+            if (wroteErr) {
+                ERR.flush();
+            }
+        } catch (IOException e) {
+            // stdout or stderr closed, nothing sensible to do
+        }
+        return written;
+    }
+
+    private static void write(Writer writer, Level level, long timestamp, String thread, String message,
+                              Object arg1, Object arg2, Object arg3, Throwable error) throws IOException {
+        writer.write(Instant.ofEpochMilli(timestamp).toString());
+        writer.write(' ');
+        writer.write(level.name());
+        writer.write(" [");
+        writer.write(thread);
+        writer.write("] ");
+
+        Object[] args = {arg1, arg2, arg3};
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while (argIndex < args.length && (placeholder = message.indexOf("{}", start)) != -1) {
+            writer.write(message, start, placeholder - start);
+            writer.write(String.valueOf(args[argIndex++]));
+            start = placeholder + 2;
+        }
+        writer.write(message, start, message.length() - start);
+        writer.write(System.lineSeparator());
+
+        if (error != null) {
+            PrintWriter printer = new PrintWriter(writer);
+            error.printStackTrace(printer);
+            printer.flush();
+        }
+    }
+
+    /**
+     * Writes out everything still buffered; later messages are written synchronously
+     */
+    public static void shutdown() {
+        closed = true;
+        // Wait for entries claimed before the flag was seen to be published
+        long deadline = System.nanoTime() + 100_000_000L;
+        while (consumed < CLAIMED.get() && System.nanoTime() < deadline) {
+            if (drain() == 0) {
+                Thread.yield();
+            }
+        }
+    }
+}
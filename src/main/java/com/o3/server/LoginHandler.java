@@ -0,0 +1,73 @@
+package com.o3.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Exchanges Basic credentials, already checked by the context authenticator, for a
+ * bearer token that later requests can present instead of the password.
+ */
+public class LoginHandler implements HttpHandler {
+    private final TokenService tokenService;
+
+    public LoginHandler(TokenService tokenService) {
+        this.tokenService = tokenService;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Log.debug("Login request handled: {}", exchange.getRequestMethod());
+
+        // Drain any request body without buffering it, so the connection can be reused
+        try (InputStream body = exchange.getRequestBody()) {
+            body.transferTo(OutputStream.nullOutputStream());
+        }
+
+        if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+            sendResponse(exchange, 400, "Not supported");
+            return;
+        }
+
+        // The Basic authenticator already resolved the nickname, bake it into the token
+        HttpPrincipal principal = exchange.getPrincipal();
+        String nickname = null;
+        if (principal instanceof UserPrincipal) {
+            nickname = ((UserPrincipal) principal).getNickname();
+        }
+
+        long now = Instant.now().getEpochSecond();
+        String token = tokenService.issue(principal.getUsername(), nickname, now);
+
+        JSONObject json = new JSONObject();
+        json.put("token", token);
+        json.put("token_type", "Bearer");
+        json.put("expires_in", tokenService.getTtlSeconds());
+        json.put("expires_at", Instant.ofEpochSecond(now + tokenService.getTtlSeconds()).toString());
+
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(bytes);
+        outputStream.flush();
+        outputStream.close();
+    }
+
+    private void sendResponse(HttpExchange exchange, int code, String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(bytes);
+        outputStream.flush();
+        outputStream.close();
+    }
+}
@@ -1,19 +1,151 @@
 package com.o3.server;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
-import org.json.JSONObject;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MessageDatabase {
+    // Messages joined with their observatories; rows of one message are adjacent because
+    // messages is walked in a key order and observatories are reached through their message_id index
+    private static final String MESSAGE_WITH_OBSERVATORIES_COLUMNS = "SELECT m.id, m.target_body_name, " +
+        "m.center_body_name, m.epoch, m.semi_major_axis_au, m.eccentricity, m.inclination_deg, " +
+        "m.longitude_ascending_node_deg, m.argument_of_periapsis_deg, m.mean_anomaly_deg, " +
+        "m.position_au, m.velocity_au_per_day, m.record_payload, " +
+        "m.record_time_received, m.record_owner, m.update_reason, m.edited, m.change_seq, " +
+        "o.latitude, o.longitude, o.observatory_name, o.temperature_in_kelvins, " +
+        "o.cloudiness_percentage, o.background_light_volume ";
+    private static final String OBSERVATORIES_JOIN = "LEFT JOIN observatories o ON o.message_id = m.id ";
+    private static final String MESSAGE_WITH_OBSERVATORIES_QUERY = MESSAGE_WITH_OBSERVATORIES_COLUMNS +
+        "FROM messages m " + OBSERVATORIES_JOIN;
+    
+    // Every insert and update takes the next change sequence number; all writes go through
+    // the single writer connection, so numbers are handed out in commit order
+    private static final String NEXT_CHANGE_SEQ = "(SELECT COALESCE(MAX(change_seq), 0) + 1 FROM messages)";
+    
+    private static final String INSERT_MESSAGE_QUERY = "INSERT INTO messages " +
+        "(target_body_name, center_body_name, epoch, semi_major_axis_au, eccentricity, inclination_deg, " +
+        "longitude_ascending_node_deg, argument_of_periapsis_deg, mean_anomaly_deg, " +
+        "position_au, velocity_au_per_day, record_payload, record_time_received, record_owner, change_seq) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, " + NEXT_CHANGE_SEQ + ") RETURNING id, change_seq";
+    
+    private static final String INSERT_OBSERVATORY_QUERY = "INSERT INTO observatories " +
+        "(message_id, latitude, longitude, observatory_name, temperature_in_kelvins, cloudiness_percentage, background_light_volume) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    
+    private static final int DEFAULT_BUSY_TIMEOUT_MS = 5000;
+    
     private static MessageDatabase instance = null;
-    private Connection connection = null;
+    private static final int DEFAULT_COMMIT_BATCH_SIZE = 100;
+    private static final long DEFAULT_COMMIT_DELAY_MS = 2;
+    private static final long DEFAULT_RECORD_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final int DEFAULT_RECORD_CACHE_ENTRIES = 10000;
+    // A streamed result is read in pages of at most this many records or bytes, so a reader
+    // connection is never held while the response goes out over the network
+    private static final int STREAM_PAGE_RECORDS = 256;
+    private static final long STREAM_PAGE_BYTES = 1024 * 1024;
+    
+    private volatile ConnectionPool pool = null;
+    private volatile GroupCommitWriter<PendingMessage> groupCommitWriter = null;
+    private volatile RecordJsonCache recordJsonCache = new RecordJsonCache(0);
+    private volatile RecordCache recordCache = new RecordCache(0);
+    // Receives committed records for live subscribers, null until the server sets one
+    private volatile RecordEventBus eventBus = null;
+    // Highest committed change_seq, so an unchanged version means unchanged data
+    private final AtomicLong datasetVersion = new AtomicLong();
+    // Call timings per public method, exported on /metrics
+    private final Histogram addUserTimer = callTimer("addUser");
+    private final Histogram getUserTimer = callTimer("getUser");
+    private final Histogram getUserNicknameTimer = callTimer("getUserNickname");
+    private final Histogram addMessageTimer = callTimer("addMessage");
+    private final Histogram addMessagesTimer = callTimer("addMessages");
+    private final Histogram getAllMessagesTimer = callTimer("getAllMessages");
+    private final Histogram streamMessagesTimer = callTimer("streamMessages");
+    private final Histogram getMessageByIdTimer = callTimer("getMessageById");
+    private final Histogram updateMessageTimer = callTimer("updateMessage");
+    private final Histogram resolveChangeCursorTimer = callTimer("resolveChangeCursor");
     
     private MessageDatabase() {
+        Metrics metrics = Metrics.getInstance();
+        metrics.counter("o3_record_cache_hits_total", "Single-record reads served from the record cache", "",
+                        () -> recordCache.getHitCount());
+        metrics.counter("o3_record_cache_misses_total", "Single-record reads that went to the database", "",
+                        () -> recordCache.getMissCount());
+        metrics.gauge("o3_record_cache_entries", "Records in the record cache", "", () -> recordCache.size());
+        metrics.counter("o3_record_json_cache_hits_total", "Records served from the serialized record cache", "",
+                        () -> recordJsonCache.getHitCount());
+        metrics.counter("o3_record_json_cache_misses_total", "Records serialized because they were not cached", "",
+                        () -> recordJsonCache.getMissCount());
+        metrics.gauge("o3_record_json_cache_bytes", "Bytes held by the serialized record cache", "",
+                      () -> recordJsonCache.getUsedBytes());
+        metrics.gauge("o3_dataset_version", "Highest committed change sequence number", "", datasetVersion::get);
+    }
+    
+    private static Histogram callTimer(String method) {
+        return Metrics.getInstance().timer("o3_db_call_duration_seconds", "Duration of MessageDatabase calls",
+                                           Metrics.labels("method", method));
+    }
+    
+    /**
+     * Receives records one by one while a query result is being walked
+     */
+    public interface RecordVisitor {
+        void visit(ObservationRecord record) throws IOException;
+    }
+    
+    /**
+     * Receives the serialized JSON of records one by one while a query result is being walked.
+     * The array is shared with the record cache and must not be modified.
+     */
+    public interface JsonVisitor {
+        void visit(byte[] json) throws IOException;
+    }
+    
+    /**
+     * Serialized records read from one query page, with the keys of the last one so the next
+     * page can continue after it
+     */
+    private static class StreamPage {
+        final List<byte[]> records;
+        final int maxRecords;
+        long bytes;
+        int lastId;
+        long lastChangeSeq;
+        
+        StreamPage(int maxRecords) {
+            this.records = new ArrayList<>(Math.min(maxRecords, STREAM_PAGE_RECORDS));
+            this.maxRecords = maxRecords;
+        }
+        
+        void add(int id, long changeSeq, byte[] json) {
+            records.add(json);
+            bytes += json.length;
+            lastId = id;
+            lastChangeSeq = changeSeq;
+        }
+        
+        boolean isFull() {
+            return records.size() >= maxRecords || bytes >= STREAM_PAGE_BYTES;
+        }
+    }
+    
+    /**
+     * A message waiting in the group commit queue together with its receive time
+     */
+    private static class PendingMessage {
+        final ObservationRecord record;
+        final long receivedAt;
+        // Set by insertMessage, read after the insert has committed
+        long changeSeq;
+        
+        PendingMessage(ObservationRecord record, long receivedAt) {
+            this.record = record;
+            this.receivedAt = receivedAt;
+        }
     }
     
     public static synchronized MessageDatabase getInstance() {
@@ -24,468 +156,750 @@ public class MessageDatabase {
     }
     
     public void open(String dbName) throws SQLException {
+        open(dbName, Runtime.getRuntime().availableProcessors(), DEFAULT_BUSY_TIMEOUT_MS,
+             DEFAULT_COMMIT_BATCH_SIZE, DEFAULT_COMMIT_DELAY_MS, DEFAULT_RECORD_CACHE_BYTES,
+             DEFAULT_RECORD_CACHE_ENTRIES);
+    }
+    
+    /**
+     * Opens the database with one writer connection and readerCount reader connections.
+     * busyTimeoutMs bounds how long a statement waits on a locked database and how long
+     * a caller waits for a free pooled connection. New messages are committed in groups of
+     * up to commitBatchSize, waiting at most commitDelayMs for a group to fill. Serialized
+     * records are cached up to recordCacheBytes, records read by id up to recordCacheEntries.
+     */
+    public void open(String dbName, int readerCount, int busyTimeoutMs, int commitBatchSize,
+                     long commitDelayMs, long recordCacheBytes, int recordCacheEntries) throws SQLException {
         try {
-            File dbFile = new File(dbName);
-            boolean dbExists = dbFile.exists() && !dbFile.isDirectory();
-            
-            String connectionAddress = "jdbc:sqlite:" + dbName;
-            connection = DriverManager.getConnection(connectionAddress);
-            
-            // Enable foreign key constraints
-            Statement stmt = connection.createStatement();
-            stmt.execute("PRAGMA foreign_keys = ON;");
-            stmt.close();
-            
-            if (!dbExists) {
-                initializeDatabase();
+            recordJsonCache = new RecordJsonCache(recordCacheBytes);
+            recordCache = new RecordCache(recordCacheEntries);
+            pool = new ConnectionPool(dbName, readerCount, busyTimeoutMs);
+            
+            // Creates the schema in a new database and upgrades older ones in place
+            try (ConnectionPool.PooledConnection writer = pool.acquireWriter()) {
+                SchemaMigrations.migrate(writer.getConnection());
+                datasetVersion.set(readMaxChangeSeq(writer));
             }
+            
+            groupCommitWriter = new GroupCommitWriter<>(pool, this::insertMessage, commitBatchSize, commitDelayMs);
         } catch (SQLException e) {
-            System.err.println("Error opening database: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error opening database", e);
             throw e;
         }
     }
     
-    private boolean initializeDatabase() throws SQLException {
-        if (null != connection) {
-            // Create users table
-            String createUsersString = "CREATE TABLE users (" +
-                "username TEXT PRIMARY KEY NOT NULL, " +
-                "password TEXT NOT NULL, " +
-                "email TEXT NOT NULL, " +
-                "nickname TEXT NOT NULL)";
-            
-            Statement createStatement = connection.createStatement();
-            createStatement.executeUpdate(createUsersString);
-            createStatement.close();
-            
-            // Create messages table
-            String createMessagesString = "CREATE TABLE messages (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "target_body_name TEXT NOT NULL, " +
-                "center_body_name TEXT NOT NULL, " +
-                "epoch TEXT NOT NULL, " +
-                "orbital_elements TEXT, " +
-                "state_vector TEXT, " +
-                "record_payload TEXT, " +
-                "record_time_received INTEGER NOT NULL, " +
-                "record_owner TEXT NOT NULL, " +
-                "update_reason TEXT, " +
-                "edited INTEGER)";
-            
-            createStatement = connection.createStatement();
-            createStatement.executeUpdate(createMessagesString);
-            createStatement.close();
-            
-            // Create observatories table
-            String createObservatoriesString = "CREATE TABLE observatories (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "message_id INTEGER NOT NULL, " +
-                "latitude REAL NOT NULL, " +
-                "longitude REAL NOT NULL, " +
-                "observatory_name TEXT NOT NULL, " +
-                "temperature_in_kelvins REAL, " +
-                "cloudiness_percentage REAL, " +
-                "background_light_volume REAL, " +
-                "FOREIGN KEY (message_id) REFERENCES messages(id))";
-            
-            createStatement = connection.createStatement();
-            createStatement.executeUpdate(createObservatoriesString);
-            createStatement.close();
-            
-            return true;
-        }
-        return false;
-    }
-    
     public boolean addUser(String username, String password, String email, String nickname) throws SQLException {
-        try {
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection writer = pool.acquireWriter()) {
             // Check if user already exists
             String checkQuery = "SELECT username FROM users WHERE username = ?";
-            PreparedStatement checkStatement = connection.prepareStatement(checkQuery);
+            PreparedStatement checkStatement = writer.prepare(checkQuery);
             checkStatement.setString(1, username);
+            SqlStatementEvent checkEvent = SqlStatementEvent.start(checkQuery);
             ResultSet resultSet = checkStatement.executeQuery();
             
             if (resultSet.next()) {
                 resultSet.close();
-                checkStatement.close();
+                checkEvent.finish(1);
                 return false; // User already exists
             }
             
             resultSet.close();
-            checkStatement.close();
+            checkEvent.finish(0);
             
             // Insert new user
             String insertQuery = "INSERT INTO users (username, password, email, nickname) VALUES (?, ?, ?, ?)";
-            PreparedStatement insertStatement = connection.prepareStatement(insertQuery);
+            PreparedStatement insertStatement = writer.prepare(insertQuery);
             insertStatement.setString(1, username);
             insertStatement.setString(2, password);
             insertStatement.setString(3, email);
             insertStatement.setString(4, nickname);
-            insertStatement.executeUpdate();
-            insertStatement.close();
+            SqlStatementEvent insertEvent = SqlStatementEvent.start(insertQuery);
+            insertEvent.finish(insertStatement.executeUpdate());
             
             return true;
         } catch (SQLException e) {
-            System.err.println("Error adding user: " + e.getMessage());
+            Log.error("Error adding user: {}", e.getMessage());
             throw e;
+        } finally {
+            addUserTimer.record(System.nanoTime() - start);
         }
     }
     
     public User getUser(String username) throws SQLException {
+        long start = System.nanoTime();
         String query = "SELECT username, password, email, nickname FROM users WHERE username = ?";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, username);
-        ResultSet resultSet = statement.executeQuery();
-        
-        User user = null;
-        if (resultSet.next()) {
-            user = new User(
-                resultSet.getString("username"),
-                resultSet.getString("password"),
-                resultSet.getString("email"),
-                resultSet.getString("nickname")
-            );
+        try (ConnectionPool.PooledConnection reader = pool.acquireReader()) {
+            PreparedStatement statement = reader.prepare(query);
+            statement.setString(1, username);
+            SqlStatementEvent event = SqlStatementEvent.start(query);
+            ResultSet resultSet = statement.executeQuery();
+            
+            User user = null;
+            if (resultSet.next()) {
+                user = new User(
+                    resultSet.getString("username"),
+                    resultSet.getString("password"),
+                    resultSet.getString("email"),
+                    resultSet.getString("nickname")
+                );
+            }
+            
+            resultSet.close();
+            event.finish(user == null ? 0 : 1);
+            return user;
+        } finally {
+            getUserTimer.record(System.nanoTime() - start);
         }
-        
-        resultSet.close();
-        statement.close();
-        return user;
     }
     
     public String getUserNickname(String username) throws SQLException {
+        long start = System.nanoTime();
         String query = "SELECT nickname FROM users WHERE username = ?";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, username);
-        ResultSet resultSet = statement.executeQuery();
-        
-        String nickname = null;
-        if (resultSet.next()) {
-            nickname = resultSet.getString("nickname");
+        try (ConnectionPool.PooledConnection reader = pool.acquireReader()) {
+            PreparedStatement statement = reader.prepare(query);
+            statement.setString(1, username);
+            SqlStatementEvent event = SqlStatementEvent.start(query);
+            ResultSet resultSet = statement.executeQuery();
+            
+            String nickname = null;
+            if (resultSet.next()) {
+                nickname = resultSet.getString("nickname");
+            }
+            
+            resultSet.close();
+            event.finish(nickname == null ? 0 : 1);
+            return nickname;
+        } finally {
+            getUserNicknameTimer.record(System.nanoTime() - start);
         }
-        
-        resultSet.close();
-        statement.close();
-        return nickname;
     }
     
     public int addMessage(String targetBodyName, String centerBodyName, String epoch,
-                          JSONObject orbitalElements, JSONObject stateVector,
+                          OrbitalElements orbitalElements, StateVector stateVector,
                           String ownerNickname, String recordPayload, List<Observatory> observatories) throws SQLException {
+        long start = System.nanoTime();
         long timestamp = ZonedDateTime.now(ZoneOffset.UTC).toInstant().toEpochMilli();
+        Log.debug("Adding message for owner: {}", ownerNickname);
         
-        // Debug logging
-        System.err.println("DEBUG: Adding message for owner: " + ownerNickname);
-        System.err.println("DEBUG: Connection null? " + (connection == null));
+        ObservationRecord record = new ObservationRecord(
+            targetBodyName, centerBodyName, epoch, orbitalElements, stateVector);
+        record.setMetadata(-1, null, ownerNickname);
+        record.setRecordPayload(recordPayload);
+        record.setObservatories(observatories);
         
         try {
-            String insertQuery = "INSERT INTO messages " +
-                "(target_body_name, center_body_name, epoch, orbital_elements, state_vector, " +
-                "record_payload, record_time_received, record_owner) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-            
-            PreparedStatement statement = connection.prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS);
-            statement.setString(1, targetBodyName);
-            statement.setString(2, centerBodyName);
-            statement.setString(3, epoch);
-            statement.setString(4, orbitalElements != null ? orbitalElements.toString() : null);
-            statement.setString(5, stateVector != null ? stateVector.toString() : null);
-            statement.setString(6, recordPayload);
-            statement.setLong(7, timestamp);
-            statement.setString(8, ownerNickname);
-            
-            statement.executeUpdate();
-            
-            ResultSet generatedKeys = statement.getGeneratedKeys();
-            int id = -1;
-            if (generatedKeys.next()) {
-                id = generatedKeys.getInt(1);
+            // Committed together with whatever other inserts are queued right now
+            PendingMessage pending = new PendingMessage(record, timestamp);
+            int id = groupCommitWriter.insert(pending);
+            datasetVersion.incrementAndGet();
+            record.setMetadata(id, toIsoTimestamp(timestamp), ownerNickname);
+            publish("created", record, pending.changeSeq);
+            return id;
+        } catch (SQLException e) {
+            Log.error("Error in addMessage, SQL state {}", e.getSQLState(), e);
+            throw e;
+        } finally {
+            addMessageTimer.record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Stores several already validated records in a single transaction, bypassing the group
+     * commit queue. Each record must carry its owner; all records share one receive time.
+     *
+     * @return the generated ids in the order of the given records
+     */
+    public int[] addMessages(List<ObservationRecord> records) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            long timestamp = ZonedDateTime.now(ZoneOffset.UTC).toInstant().toEpochMilli();
+            int[] ids = new int[records.size()];
+            long[] changeSeqs = new long[records.size()];
+            
+            try (ConnectionPool.PooledConnection writer = pool.acquireWriter()) {
+                Connection connection = writer.getConnection();
+                connection.setAutoCommit(false);
+                try {
+                    for (int i = 0; i < records.size(); i++) {
+                        PendingMessage pending = new PendingMessage(records.get(i), timestamp);
+                        ids[i] = insertMessage(writer, pending);
+                        changeSeqs[i] = pending.changeSeq;
+                    }
+                    connection.commit();
+                } catch (Throwable t) {
+                    // Restoring auto-commit below would commit whatever was written so far
+                    connection.rollback();
+                    throw t;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
             }
             
-            generatedKeys.close();
-            statement.close();
-            
-            // Add observatories if present
-            if (observatories != null && !observatories.isEmpty() && id != -1) {
-                String insertObsQuery = "INSERT INTO observatories " +
-                    "(message_id, latitude, longitude, observatory_name, temperature_in_kelvins, cloudiness_percentage, background_light_volume) VALUES (?, ?, ?, ?, ?, ?, ?)";
-                PreparedStatement obsStatement = connection.prepareStatement(insertObsQuery);
-                
-                for (Observatory obs : observatories) {
-                    obsStatement.setInt(1, id);
-                    obsStatement.setDouble(2, obs.getLatitude());
-                    obsStatement.setDouble(3, obs.getLongitude());
-                    obsStatement.setString(4, obs.getObservatoryName());
-                    
-                    // Set weather data (can be null)
-                    if (obs.getTemperatureInKelvins() != null) {
-                        obsStatement.setDouble(5, obs.getTemperatureInKelvins());
-                    } else {
-                        obsStatement.setNull(5, java.sql.Types.REAL);
-                    }
-                    if (obs.getCloudinessPercentage() != null) {
-                        obsStatement.setDouble(6, obs.getCloudinessPercentage());
-                    } else {
-                        obsStatement.setNull(6, java.sql.Types.REAL);
-                    }
-                    if (obs.getBackgroundLightVolume() != null) {
-                        obsStatement.setDouble(7, obs.getBackgroundLightVolume());
-                    } else {
-                        obsStatement.setNull(7, java.sql.Types.REAL);
-                    }
-                    
-                    obsStatement.addBatch();
+            datasetVersion.addAndGet(ids.length);
+            if (eventBus != null && eventBus.hasSubscribers()) {
+                String received = toIsoTimestamp(timestamp);
+                for (int i = 0; i < ids.length; i++) {
+                    ObservationRecord record = records.get(i);
+                    record.setMetadata(ids[i], received, record.getRecordOwner());
+                    publish("created", record, changeSeqs[i]);
                 }
-                
-                obsStatement.executeBatch();
-                obsStatement.close();
+            }
+            return ids;
+        } finally {
+            addMessagesTimer.record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Inserts one message with its observatories inside the transaction opened by the caller.
+     * The change_seq given to the row is stored in the pending message.
+     */
+    private int insertMessage(ConnectionPool.PooledConnection writer, PendingMessage pending) throws SQLException {
+        ObservationRecord record = pending.record;
+        PreparedStatement statement = writer.prepare(INSERT_MESSAGE_QUERY);
+        statement.setString(1, record.getTargetBodyName());
+        statement.setString(2, record.getCenterBodyName());
+        statement.setString(3, record.getEpoch());
+        OrbitalElements.bind(statement, 4, record.getOrbitalElements());
+        StateVector.bind(statement, 10, record.getStateVector());
+        statement.setString(12, record.getRecordPayload());
+        statement.setLong(13, pending.receivedAt);
+        statement.setString(14, record.getRecordOwner());
+        
+        SqlStatementEvent event = SqlStatementEvent.start(INSERT_MESSAGE_QUERY);
+        ResultSet inserted = statement.executeQuery();
+        int id = -1;
+        if (inserted.next()) {
+            id = inserted.getInt(1);
+            pending.changeSeq = inserted.getLong(2);
+        }
+        
+        inserted.close();
+        event.finish(id == -1 ? 0 : 1);
+        
+        // Add observatories if present
+        if (id != -1) {
+            insertObservatories(writer, id, record.getObservatories());
+        }
+        
+        return id;
+    }
+    
+    /**
+     * Inserts the observatories of a message as one statement batch on the writer connection
+     */
+    private void insertObservatories(ConnectionPool.PooledConnection writer, int messageId,
+                                     List<Observatory> observatories) throws SQLException {
+        if (observatories == null || observatories.isEmpty()) {
+            return;
+        }
+        
+        PreparedStatement obsStatement = writer.prepare(INSERT_OBSERVATORY_QUERY);
+        
+        for (Observatory obs : observatories) {
+            obsStatement.setInt(1, messageId);
+            obsStatement.setDouble(2, obs.getLatitude());
+            obsStatement.setDouble(3, obs.getLongitude());
+            obsStatement.setString(4, obs.getObservatoryName());
+            
+            // Set weather data (can be null)
+            if (obs.getTemperatureInKelvins() != null) {
+                obsStatement.setDouble(5, obs.getTemperatureInKelvins());
+            } else {
+                obsStatement.setNull(5, java.sql.Types.REAL);
+            }
+            if (obs.getCloudinessPercentage() != null) {
+                obsStatement.setDouble(6, obs.getCloudinessPercentage());
+            } else {
+                obsStatement.setNull(6, java.sql.Types.REAL);
+            }
+            if (obs.getBackgroundLightVolume() != null) {
+                obsStatement.setDouble(7, obs.getBackgroundLightVolume());
+            } else {
+                obsStatement.setNull(7, java.sql.Types.REAL);
             }
             
-            return id;
-        } catch (SQLException e) {
-            System.err.println("ERROR in addMessage: " + e.getMessage());
-            System.err.println("ERROR SQL State: " + e.getSQLState());
-            System.err.println("ERROR Code: " + e.getErrorCode());
-            e.printStackTrace();
-            throw e;
+            obsStatement.addBatch();
         }
+        
+        SqlStatementEvent event = SqlStatementEvent.start(INSERT_OBSERVATORY_QUERY);
+        int rows = 0;
+        for (int count : obsStatement.executeBatch()) {
+            rows += Math.max(count, 0);
+        }
+        event.finish(rows);
     }
     
     public List<ObservationRecord> getAllMessages() throws SQLException {
+        long start = System.nanoTime();
         List<ObservationRecord> messages = new ArrayList<>();
-        String query = "SELECT id, target_body_name, center_body_name, epoch, orbital_elements, " +
-                       "state_vector, record_payload, record_time_received, record_owner, update_reason, edited FROM messages";
+        String query = MESSAGE_WITH_OBSERVATORIES_QUERY + "ORDER BY m.id";
         
-        Statement statement = connection.createStatement();
-        ResultSet resultSet = statement.executeQuery(query);
+        try (ConnectionPool.PooledConnection reader = pool.acquireReader()) {
+            SqlStatementEvent event = SqlStatementEvent.start(query);
+            ResultSet resultSet = reader.prepare(query).executeQuery();
+            int rows;
+            try {
+                rows = readRecords(resultSet, -1, messages::add);
+            } catch (IOException e) {
+                // Collecting into a list never fails with an IOException
+                throw new IllegalStateException(e);
+            } finally {
+                resultSet.close();
+            }
+            event.finish(rows);
+        } finally {
+            getAllMessagesTimer.record(System.nanoTime() - start);
+        }
+        
+        return messages;
+    }
+    
+    /**
+     * Walks the messages matching the query in the query's key order and hands the JSON of each
+     * record to the visitor. Records are read a page at a time and the reader connection is
+     * returned to the pool before the page is handed out, so a slow client cannot hold a
+     * connection or an open read transaction. Each page is a separate read, continuing after
+     * the last record of the previous one, so later pages see writes committed meanwhile.
+     * Records whose current version is cached are not decoded at all. A negative query limit
+     * streams every remaining row.
+     */
+    public void streamMessages(RecordQuery query, JsonVisitor visitor) throws SQLException, IOException {
+        long start = System.nanoTime();
+        // The page of messages is picked first, so a query never runs past the page
+        // limit and observatories are only joined for the messages handed out
+        String order = query.toOrderClause();
+        String sql = MESSAGE_WITH_OBSERVATORIES_COLUMNS + "FROM (SELECT * FROM messages m " +
+            query.toWhereClause() + order + "LIMIT ?) m " + OBSERVATORIES_JOIN + order;
+        int afterId = query.getAfterId();
+        long since = query.getSince();
+        int remaining = query.getLimit();
+        
+        try {
+            while (true) {
+                StreamPage page = new StreamPage(remaining < 0 ? STREAM_PAGE_RECORDS
+                                                               : Math.min(remaining, STREAM_PAGE_RECORDS));
+                try (ConnectionPool.PooledConnection reader = pool.acquireReader()) {
+                    PreparedStatement statement = reader.prepare(sql);
+                    int next = query.bind(statement);
+                    statement.setInt(next, page.maxRecords);
+                    SqlStatementEvent event = SqlStatementEvent.start(sql);
+                    ResultSet resultSet = statement.executeQuery();
+                    int rows;
+                    try {
+                        rows = readRecordJson(resultSet, page);
+                    } finally {
+                        resultSet.close();
+                    }
+                    event.finish(rows);
+                }
+                
+                for (byte[] json : page.records) {
+                    visitor.visit(json);
+                }
+                if (!page.isFull()) {
+                    return;
+                }
+                if (remaining >= 0) {
+                    remaining -= page.records.size();
+                    if (remaining == 0) {
+                        return;
+                    }
+                }
+                // Continue after the last record handed out
+                if (query.isChangeFeed()) {
+                    query.setSince(page.lastChangeSeq);
+                } else {
+                    query.setAfterId(page.lastId);
+                }
+            }
+        } finally {
+            query.setAfterId(afterId);
+            query.setSince(since);
+            streamMessagesTimer.record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Like readRecords, but collects serialized records into the page until it is full, and
+     * takes them from the record cache when the cached version matches the row
+     *
+     * @return the number of rows read
+     */
+    private int readRecordJson(ResultSet resultSet, StreamPage page) throws SQLException {
+        RecordJsonCache cache = recordJsonCache;
+        ObservationRecord current = null;
+        byte[] cached = null;
+        int currentId = -1;
+        long currentVersion = 0;
+        int rows = 0;
         
         while (resultSet.next()) {
+            rows++;
             int id = resultSet.getInt("id");
-            String targetBodyName = resultSet.getString("target_body_name");
-            String centerBodyName = resultSet.getString("center_body_name");
-            String epoch = resultSet.getString("epoch");
-            
-            String orbitalElementsStr = resultSet.getString("orbital_elements");
-            JSONObject orbitalElements = orbitalElementsStr != null ? new JSONObject(orbitalElementsStr) : null;
-            
-            String stateVectorStr = resultSet.getString("state_vector");
-            JSONObject stateVector = stateVectorStr != null ? new JSONObject(stateVectorStr) : null;
-            
-            String recordPayload = resultSet.getString("record_payload");
-            
-            long recordTimeReceived = resultSet.getLong("record_time_received");
-            String recordOwner = resultSet.getString("record_owner");
-            
-            String updateReason = resultSet.getString("update_reason");
-            
-            // Get edited timestamp - handle NULL
-            long editedTimestamp = resultSet.getLong("edited");
-            boolean hasEdited = !resultSet.wasNull();
-            
-            // Convert timestamp to ISO 8601 format in UTC
-            ZonedDateTime dateTime = ZonedDateTime.ofInstant(
-                Instant.ofEpochMilli(recordTimeReceived), ZoneOffset.UTC);
-            String timestamp = dateTime.toString();
-            
-            ObservationRecord record = new ObservationRecord(
-                targetBodyName, centerBodyName, epoch, orbitalElements, stateVector);
-            record.setMetadata(id, timestamp, recordOwner);
-            record.setRecordPayload(recordPayload);
-            
-            // Set update_reason if present
-            if (updateReason != null) {
-                record.setUpdateReason(updateReason);
+            if (currentId != id) {
+                if (currentId != -1) {
+                    page.add(currentId, currentVersion, cached != null ? cached : serialize(cache, current, currentVersion));
+                    if (page.isFull()) {
+                        return rows;
+                    }
+                }
+                currentId = id;
+                // Every insert and update gives the row a new change_seq
+                currentVersion = resultSet.getLong("change_seq");
+                cached = cache.get(id, currentVersion);
+                current = cached == null ? readRecord(resultSet) : null;
             }
             
-            // Set edited timestamp if present
-            if (hasEdited) {
-                ZonedDateTime editedDateTime = ZonedDateTime.ofInstant(
-                    Instant.ofEpochMilli(editedTimestamp), ZoneOffset.UTC);
-                record.setEdited(editedDateTime.toString());
+            if (current != null) {
+                Observatory observatory = readObservatory(resultSet);
+                if (observatory != null) {
+                    current.addObservatory(observatory);
+                }
             }
-            
-            // Retrieve observatories for this message
-            List<Observatory> observatories = getObservatoriesForMessage(id);
-            record.setObservatories(observatories);
-            
-            messages.add(record);
         }
         
-        resultSet.close();
-        statement.close();
-        
-        return messages;
+        if (currentId != -1) {
+            page.add(currentId, currentVersion, cached != null ? cached : serialize(cache, current, currentVersion));
+        }
+        return rows;
     }
     
-    private List<Observatory> getObservatoriesForMessage(int messageId) throws SQLException {
-        List<Observatory> observatories = new ArrayList<>();
-        String query = "SELECT latitude, longitude, observatory_name, temperature_in_kelvins, cloudiness_percentage, background_light_volume FROM observatories WHERE message_id = ?";
-        
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setInt(1, messageId);
-        ResultSet resultSet = statement.executeQuery();
+    private static byte[] serialize(RecordJsonCache cache, ObservationRecord record, long version) {
+        byte[] json = record.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+        cache.put(record.getId(), version, json);
+        return json;
+    }
+    
+    /**
+     * Folds the rows of a MESSAGE_WITH_OBSERVATORIES_QUERY result into records. A record is
+     * handed to the visitor once the first row of the next message (or the end) is reached.
+     * Reading stops after limit records unless limit is negative.
+     *
+     * @return the number of rows read
+     */
+    private int readRecords(ResultSet resultSet, int limit, RecordVisitor visitor) throws SQLException, IOException {
+        ObservationRecord current = null;
+        int count = 0;
+        int rows = 0;
         
         while (resultSet.next()) {
-            double latitude = resultSet.getDouble("latitude");
-            double longitude = resultSet.getDouble("longitude");
-            String observatoryName = resultSet.getString("observatory_name");
-            
-            Observatory obs = new Observatory(latitude, longitude, observatoryName);
-            
-            // Set weather data if available
-            Double temperature = resultSet.getObject("temperature_in_kelvins", Double.class);
-            Double cloudiness = resultSet.getObject("cloudiness_percentage", Double.class);
-            Double backgroundLight = resultSet.getObject("background_light_volume", Double.class);
-            
-            if (temperature != null && cloudiness != null && backgroundLight != null) {
-                obs.setWeatherData(temperature, cloudiness, backgroundLight);
+            rows++;
+            int id = resultSet.getInt("id");
+            if (current == null || current.getId() != id) {
+                if (current != null) {
+                    visitor.visit(current);
+                    count++;
+                    if (limit >= 0 && count >= limit) {
+                        return rows;
+                    }
+                }
+                current = readRecord(resultSet);
             }
             
-            observatories.add(obs);
+            Observatory observatory = readObservatory(resultSet);
+            if (observatory != null) {
+                current.addObservatory(observatory);
+            }
+        }
+        
+        if (current != null && (limit < 0 || count < limit)) {
+            visitor.visit(current);
+        }
+        return rows;
+    }
+    
+    /**
+     * Builds an ObservationRecord without observatories from the message columns of the current row
+     */
+    private ObservationRecord readRecord(ResultSet resultSet) throws SQLException {
+        int id = resultSet.getInt("id");
+        String targetBodyName = resultSet.getString("target_body_name");
+        String centerBodyName = resultSet.getString("center_body_name");
+        String epoch = resultSet.getString("epoch");
+        
+        OrbitalElements orbitalElements = OrbitalElements.fromResultSet(resultSet);
+        StateVector stateVector = StateVector.fromResultSet(resultSet);
+        
+        String recordPayload = resultSet.getString("record_payload");
+        
+        long recordTimeReceived = resultSet.getLong("record_time_received");
+        String recordOwner = resultSet.getString("record_owner");
+        
+        String updateReason = resultSet.getString("update_reason");
+        
+        // Get edited timestamp - handle NULL
+        long editedTimestamp = resultSet.getLong("edited");
+        boolean hasEdited = !resultSet.wasNull();
+        
+        // Convert timestamp to ISO 8601 format in UTC
+        String timestamp = toIsoTimestamp(recordTimeReceived);
+        
+        ObservationRecord record = new ObservationRecord(
+            targetBodyName, centerBodyName, epoch, orbitalElements, stateVector);
+        record.setMetadata(id, timestamp, recordOwner);
+        record.setRecordPayload(recordPayload);
+        
+        // Set update_reason if present
+        if (updateReason != null) {
+            record.setUpdateReason(updateReason);
         }
         
-        resultSet.close();
-        statement.close();
+        // Set edited timestamp if present
+        if (hasEdited) {
+            record.setEdited(toIsoTimestamp(editedTimestamp));
+        }
         
-        return observatories;
+        return record;
     }
     
-    public ObservationRecord getMessageById(int messageId) throws SQLException {
-        String query = "SELECT id, target_body_name, center_body_name, epoch, orbital_elements, " +
-                       "state_vector, record_payload, record_time_received, record_owner, update_reason, edited FROM messages WHERE id = ?";
+    private static String toIsoTimestamp(long epochMillis) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC).toString();
+    }
+    
+    /**
+     * Hands a committed record to live subscribers, if there are any
+     */
+    private void publish(String event, ObservationRecord record, long changeSeq) {
+        RecordEventBus bus = eventBus;
+        if (bus != null && bus.hasSubscribers()) {
+            bus.publish(event, changeSeq, record.toJSON().toString());
+        }
+    }
+    
+    public void setEventBus(RecordEventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+    
+    /**
+     * Reads the observatory columns of the current row, or returns null when the
+     * LEFT JOIN found no observatory for the message
+     */
+    private Observatory readObservatory(ResultSet resultSet) throws SQLException {
+        String observatoryName = resultSet.getString("observatory_name");
+        if (observatoryName == null) {
+            return null;
+        }
         
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setInt(1, messageId);
-        ResultSet resultSet = statement.executeQuery();
+        double latitude = resultSet.getDouble("latitude");
+        double longitude = resultSet.getDouble("longitude");
+        Observatory obs = new Observatory(latitude, longitude, observatoryName);
         
-        ObservationRecord record = null;
-        if (resultSet.next()) {
-            int id = resultSet.getInt("id");
-            String targetBodyName = resultSet.getString("target_body_name");
-            String centerBodyName = resultSet.getString("center_body_name");
-            String epoch = resultSet.getString("epoch");
-            
-            String orbitalElementsStr = resultSet.getString("orbital_elements");
-            JSONObject orbitalElements = orbitalElementsStr != null ? new JSONObject(orbitalElementsStr) : null;
-            
-            String stateVectorStr = resultSet.getString("state_vector");
-            JSONObject stateVector = stateVectorStr != null ? new JSONObject(stateVectorStr) : null;
-            
-            String recordPayload = resultSet.getString("record_payload");
-            long recordTimeReceived = resultSet.getLong("record_time_received");
-            String recordOwner = resultSet.getString("record_owner");
-            String updateReason = resultSet.getString("update_reason");
-            long editedTimestamp = resultSet.getLong("edited");
-            boolean hasEdited = !resultSet.wasNull();
-            
-            // Convert timestamp to ISO 8601 format in UTC
-            ZonedDateTime dateTime = ZonedDateTime.ofInstant(
-                Instant.ofEpochMilli(recordTimeReceived), ZoneOffset.UTC);
-            String timestamp = dateTime.toString();
-            
-            record = new ObservationRecord(targetBodyName, centerBodyName, epoch, orbitalElements, stateVector);
-            record.setMetadata(id, timestamp, recordOwner);
-            record.setRecordPayload(recordPayload);
-            
-            if (updateReason != null) {
-                record.setUpdateReason(updateReason);
+        // Set weather data if available
+        double temperature = resultSet.getDouble("temperature_in_kelvins");
+        boolean hasTemperature = !resultSet.wasNull();
+        double cloudiness = resultSet.getDouble("cloudiness_percentage");
+        boolean hasCloudiness = !resultSet.wasNull();
+        double backgroundLight = resultSet.getDouble("background_light_volume");
+        boolean hasBackgroundLight = !resultSet.wasNull();
+        
+        if (hasTemperature && hasCloudiness && hasBackgroundLight) {
+            obs.setWeatherData(temperature, cloudiness, backgroundLight);
+        }
+        
+        return obs;
+    }
+    
+    /**
+     * Returns a message with its observatories, or null if there is none with this id.
+     * Recently read messages come from the record cache; the returned record is shared
+     * and must not be modified.
+     */
+    public ObservationRecord getMessageById(int messageId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            RecordCache cache = recordCache;
+            ObservationRecord cached = cache.get(messageId);
+            if (cached != null) {
+                return cached;
             }
+            long stamp = cache.beginLoad();
             
-            if (hasEdited) {
-                ZonedDateTime editedDateTime = ZonedDateTime.ofInstant(
-                    Instant.ofEpochMilli(editedTimestamp), ZoneOffset.UTC);
-                record.setEdited(editedDateTime.toString());
+            ObservationRecord record;
+            try (ConnectionPool.PooledConnection reader = pool.acquireReader()) {
+                record = readStoredRecord(reader, messageId);
             }
             
-            // Retrieve observatories for this message
-            List<Observatory> observatories = getObservatoriesForMessage(id);
-            record.setObservatories(observatories);
+            if (record == null) {
+                return null;
+            }
+            cache.put(messageId, record, stamp);
+            return record;
+        } finally {
+            getMessageByIdTimer.record(System.nanoTime() - start);
         }
-        
-        resultSet.close();
-        statement.close();
-        
-        return record;
     }
     
     public boolean updateMessage(int messageId, String targetBodyName, String centerBodyName, String epoch,
-                                 JSONObject orbitalElements, JSONObject stateVector, String recordPayload,
+                                 OrbitalElements orbitalElements, StateVector stateVector, String recordPayload,
                                  List<Observatory> observatories, String updateReason) throws SQLException {
-        long editedTimestamp = ZonedDateTime.now(ZoneOffset.UTC).toInstant().toEpochMilli();
-        
-        // Set default value for update_reason if not provided
-        String finalUpdateReason = (updateReason == null || updateReason.trim().isEmpty()) ? "N/A" : updateReason;
-        
-        String updateQuery = "UPDATE messages SET " +
-            "target_body_name = ?, center_body_name = ?, epoch = ?, " +
-            "orbital_elements = ?, state_vector = ?, record_payload = ?, " +
-            "update_reason = ?, edited = ? WHERE id = ?";
-        
-        PreparedStatement statement = connection.prepareStatement(updateQuery);
-        statement.setString(1, targetBodyName);
-        statement.setString(2, centerBodyName);
-        statement.setString(3, epoch);
-        statement.setString(4, orbitalElements != null ? orbitalElements.toString() : null);
-        statement.setString(5, stateVector != null ? stateVector.toString() : null);
-        statement.setString(6, recordPayload);
-        statement.setString(7, finalUpdateReason);
-        statement.setLong(8, editedTimestamp);
-        statement.setInt(9, messageId);
-        
-        int rowsAffected = statement.executeUpdate();
-        statement.close();
-        
-        if (rowsAffected > 0) {
-            // Delete existing observatories for this message
-            String deleteObsQuery = "DELETE FROM observatories WHERE message_id = ?";
-            PreparedStatement deleteStatement = connection.prepareStatement(deleteObsQuery);
-            deleteStatement.setInt(1, messageId);
-            deleteStatement.executeUpdate();
-            deleteStatement.close();
-            
-            // Add new observatories
-            if (observatories != null && !observatories.isEmpty()) {
-                String insertObsQuery = "INSERT INTO observatories " +
-                    "(message_id, latitude, longitude, observatory_name, temperature_in_kelvins, cloudiness_percentage, background_light_volume) VALUES (?, ?, ?, ?, ?, ?, ?)";
-                PreparedStatement obsStatement = connection.prepareStatement(insertObsQuery);
-                
-                for (Observatory obs : observatories) {
-                    obsStatement.setInt(1, messageId);
-                    obsStatement.setDouble(2, obs.getLatitude());
-                    obsStatement.setDouble(3, obs.getLongitude());
-                    obsStatement.setString(4, obs.getObservatoryName());
+        long start = System.nanoTime();
+        try {
+            long editedTimestamp = ZonedDateTime.now(ZoneOffset.UTC).toInstant().toEpochMilli();
+            
+            // Set default value for update_reason if not provided
+            String finalUpdateReason = (updateReason == null || updateReason.trim().isEmpty()) ? "N/A" : updateReason;
+            
+            String updateQuery = "UPDATE messages SET " +
+                "target_body_name = ?, center_body_name = ?, epoch = ?, " +
+                "semi_major_axis_au = ?, eccentricity = ?, inclination_deg = ?, " +
+                "longitude_ascending_node_deg = ?, argument_of_periapsis_deg = ?, mean_anomaly_deg = ?, " +
+                "position_au = ?, velocity_au_per_day = ?, record_payload = ?, " +
+                "update_reason = ?, edited = ?, change_seq = " + NEXT_CHANGE_SEQ + " WHERE id = ? RETURNING change_seq";
+            
+            boolean updated;
+            long changeSeq = 0;
+            ObservationRecord stored = null;
+            try (ConnectionPool.PooledConnection writer = pool.acquireWriter()) {
+                Connection connection = writer.getConnection();
+                // The row update and the observatory replacement commit atomically
+                connection.setAutoCommit(false);
+                try {
+                    PreparedStatement statement = writer.prepare(updateQuery);
+                    statement.setString(1, targetBodyName);
+                    statement.setString(2, centerBodyName);
+                    statement.setString(3, epoch);
+                    OrbitalElements.bind(statement, 4, orbitalElements);
+                    StateVector.bind(statement, 10, stateVector);
+                    statement.setString(12, recordPayload);
+                    statement.setString(13, finalUpdateReason);
+                    statement.setLong(14, editedTimestamp);
+                    statement.setInt(15, messageId);
                     
-                    if (obs.getTemperatureInKelvins() != null) {
-                        obsStatement.setDouble(5, obs.getTemperatureInKelvins());
-                    } else {
-                        obsStatement.setNull(5, java.sql.Types.REAL);
-                    }
-                    if (obs.getCloudinessPercentage() != null) {
-                        obsStatement.setDouble(6, obs.getCloudinessPercentage());
-                    } else {
-                        obsStatement.setNull(6, java.sql.Types.REAL);
+                    SqlStatementEvent updateEvent = SqlStatementEvent.start(updateQuery);
+                    int rowsAffected = 0;
+                    try (ResultSet changed = statement.executeQuery()) {
+                        if (changed.next()) {
+                            rowsAffected = 1;
+                            changeSeq = changed.getLong(1);
+                        }
                     }
-                    if (obs.getBackgroundLightVolume() != null) {
-                        obsStatement.setDouble(7, obs.getBackgroundLightVolume());
-                    } else {
-                        obsStatement.setNull(7, java.sql.Types.REAL);
+                    updateEvent.finish(rowsAffected);
+                    
+                    if (rowsAffected > 0) {
+                        // Delete existing observatories for this message
+                        String deleteObsQuery = "DELETE FROM observatories WHERE message_id = ?";
+                        PreparedStatement deleteStatement = writer.prepare(deleteObsQuery);
+                        deleteStatement.setInt(1, messageId);
+                        SqlStatementEvent deleteEvent = SqlStatementEvent.start(deleteObsQuery);
+                        deleteEvent.finish(deleteStatement.executeUpdate());
+                        
+                        // Add new observatories
+                        insertObservatories(writer, messageId, observatories);
+                        
+                        // Subscribers get the record as stored, including observatories and edit
+                        // time. It is read before the commit so a later update cannot replace it.
+                        if (eventBus != null && eventBus.hasSubscribers()) {
+                            stored = readStoredRecord(writer, messageId);
+                        }
                     }
                     
-                    obsStatement.addBatch();
+                    connection.commit();
+                    updated = rowsAffected > 0;
+                } catch (Throwable t) {
+                    // Restoring auto-commit below would commit whatever was written so far
+                    connection.rollback();
+                    throw t;
+                } finally {
+                    connection.setAutoCommit(true);
                 }
-                
-                obsStatement.executeBatch();
-                obsStatement.close();
             }
             
-            return true;
+            if (updated) {
+                recordCache.invalidate(messageId);
+                recordJsonCache.invalidate(messageId);
+                datasetVersion.incrementAndGet();
+                if (stored != null) {
+                    publish("updated", stored, changeSeq);
+                }
+            }
+            return updated;
+        } finally {
+            updateMessageTimer.record(System.nanoTime() - start);
         }
-        
-        return false;
+    }
+    
+    /**
+     * Reads a message with its observatories through the given connection, so a writer sees
+     * its own uncommitted changes
+     */
+    private ObservationRecord readStoredRecord(ConnectionPool.PooledConnection connection, int messageId)
+            throws SQLException {
+        String query = MESSAGE_WITH_OBSERVATORIES_QUERY + "WHERE m.id = ?";
+        List<ObservationRecord> found = new ArrayList<>(1);
+        PreparedStatement statement = connection.prepare(query);
+        statement.setInt(1, messageId);
+        SqlStatementEvent event = SqlStatementEvent.start(query);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            event.finish(readRecords(resultSet, 1, found::add));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return found.isEmpty() ? null : found.get(0);
+    }
+    
+    /**
+     * Fixes the end of a change feed page: the change_seq of the limit-th matching change
+     * after the query's cursor, or the newest change if fewer match. The bound is stored in
+     * the query and returned as the cursor for the next request. A change that is updated
+     * again while the page is read moves past the bound and is delivered on the next page.
+     */
+    public long resolveChangeCursor(RecordQuery query) throws SQLException {
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection reader = pool.acquireReader()) {
+            long newest = readMaxChangeSeq(reader);
+            long cursor = Math.max(query.getSince(), newest);
+            if (query.getLimit() > 0 && newest > query.getSince()) {
+                query.setChangeCursor(newest);
+                String sql = "SELECT m.change_seq FROM messages m " + query.toWhereClause() +
+                    query.toOrderClause() + "LIMIT 1 OFFSET ?";
+                PreparedStatement statement = reader.prepare(sql);
+                int next = query.bind(statement);
+                statement.setInt(next, query.getLimit() - 1);
+                SqlStatementEvent event = SqlStatementEvent.start(sql);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        cursor = resultSet.getLong(1);
+                        event.finish(1);
+                    } else {
+                        event.finish(0);
+                    }
+                }
+            }
+            query.setChangeCursor(cursor);
+            return cursor;
+        } finally {
+            resolveChangeCursorTimer.record(System.nanoTime() - start);
+        }
+    }
+    
+    private static long readMaxChangeSeq(ConnectionPool.PooledConnection connection) throws SQLException {
+        String query = "SELECT MAX(change_seq) FROM messages";
+        SqlStatementEvent event = SqlStatementEvent.start(query);
+        try (ResultSet resultSet = connection.prepare(query).executeQuery()) {
+            long max = resultSet.next() ? resultSet.getLong(1) : 0;
+            event.finish(1);
+            return max;
+        }
+    }
+    
+    /**
+     * Version of the stored messages: the highest committed change_seq. It only grows and
+     * changes after every committed insert or update, so it can be read before a query to
+     * tag the result.
+     */
+    public long getDatasetVersion() {
+        return datasetVersion.get();
     }
     
     public void close() throws SQLException {
-        if (connection != null) {
-            connection.close();
+        // Flush queued inserts before the writer connection goes away
+        if (groupCommitWriter != null) {
+            groupCommitWriter.close();
+        }
+        if (pool != null) {
+            pool.close();
         }
     }
 }
@@ -0,0 +1,213 @@
+package com.o3.server;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of counters, gauges and histograms, written out in the Prometheus
+ * text format for /metrics. A metric is registered once and the returned LongAdder or
+ * Histogram is kept by the caller, so recording is a lock-free increment without lookups.
+ * Registering the same name and labels again returns the existing metric.
+ * <p>
+ * Histograms are exported as cumulative _bucket series at fixed bounds plus _sum and
+ * _count, so rates and quantiles can be computed over any window and across instances.
+ * Timers record nanoseconds and are exported in seconds.
+ */
+public final class Metrics {
+    private static final Metrics INSTANCE = new Metrics();
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    // Bucket bounds in recorded units: 0.5 ms to 10 s for timers, 128 bytes to 16 MiB for sizes
+    private static final long[] TIMER_BOUNDS = {
+        500_000L, 1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+        100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L, 5_000_000_000L,
+        10_000_000_000L
+    };
+    private static final long[] SIZE_BOUNDS = {
+        128, 512, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216
+    };
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), HISTOGRAM("histogram");
+
+        final String text;
+
+        Type(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * All series sharing a name, keyed by their rendered labels. Values are LongAdder,
+     * Histogram or LongSupplier.
+     */
+    private static class Family {
+        final String help;
+        final Type type;
+        final long divisor;
+        final long[] bounds;
+        // The le label of each bound, rendered once
+        final String[] boundLabels;
+        final Map<String, Object> series;
+
+        Family(String help, Type type, long divisor, long[] bounds) {
+            this.help = help;
+            this.type = type;
+            this.divisor = divisor;
+            this.bounds = bounds;
+            this.boundLabels = new String[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                boundLabels[i] = scale(bounds[i], divisor);
+            }
+            this.series = new ConcurrentSkipListMap<>();
+        }
+    }
+
+    private final Map<String, Family> families;
+
+    private Metrics() {
+        this.families = new ConcurrentSkipListMap<>();
+    }
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Renders label pairs as name="value",... with values escaped, e.g.
+     * labels("method", "GET", "route", "/datarecord")
+     */
+    public static String labels(String... namesAndValues) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            if (labels.length() > 0) {
+                labels.append(',');
+            }
+            labels.append(namesAndValues[i]).append("=\"");
+            String value = namesAndValues[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    labels.append('\\').append(c);
+                } else if (c == '\n') {
+                    labels.append("\\n");
+                } else {
+                    labels.append(c);
+                }
+            }
+            labels.append('"');
+        }
+        return labels.toString();
+    }
+
+    private Family family(String name, String help, Type type, long divisor) {
+        return family(name, help, type, divisor, new long[0]);
+    }
+
+    private Family family(String name, String help, Type type, long divisor, long[] bounds) {
+        Family family = families.computeIfAbsent(name, n -> new Family(help, type, divisor, bounds));
+        if (family.type != type || family.divisor != divisor) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type.text);
+        }
+        return family;
+    }
+
+    public LongAdder counter(String name, String help, String labels) {
+        return (LongAdder) family(name, help, Type.COUNTER, 1).series.computeIfAbsent(labels, l -> new LongAdder());
+    }
+
+    /**
+     * A counter kept elsewhere, read when metrics are written. Registering it again
+     * replaces the previous source.
+     */
+    public void counter(String name, String help, String labels, LongSupplier value) {
+        family(name, help, Type.COUNTER, 1).series.put(labels, value);
+    }
+
+    /**
+     * A current value read when metrics are written. Registering it again replaces the
+     * previous source.
+     */
+    public void gauge(String name, String help, String labels, LongSupplier value) {
+        family(name, help, Type.GAUGE, 1).series.put(labels, value);
+    }
+
+    /**
+     * A histogram of durations recorded in nanoseconds and exported in seconds
+     */
+    public Histogram timer(String name, String help, String labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM, NANOS_PER_SECOND, TIMER_BOUNDS).series
+            .computeIfAbsent(labels, l -> new Histogram());
+    }
+
+    /**
+     * A histogram of sizes in bytes, exported as recorded
+     */
+    public Histogram histogram(String name, String help, String labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM, 1, SIZE_BOUNDS).series
+            .computeIfAbsent(labels, l -> new Histogram());
+    }
+
+    /**
+     * Appends all metrics in the Prometheus text exposition format
+     */
+    public void write(StringBuilder out) {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.text).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Histogram) {
+                    writeHistogram(out, name, labels, (Histogram) metric, family);
+                } else {
+                    long value = metric instanceof LongAdder ? ((LongAdder) metric).sum()
+                                                             : ((LongSupplier) metric).getAsLong();
+                    appendSeries(out, name, labels).append(value).append('\n');
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, Histogram histogram,
+                                       Family family) {
+        long[] cumulative = histogram.countsAtOrBelow(family.bounds);
+        String prefix = labels.isEmpty() ? "le=\"" : labels + ",le=\"";
+        for (int i = 0; i < family.bounds.length; i++) {
+            appendSeries(out, name + "_bucket", prefix + family.boundLabels[i] + "\"").append(cumulative[i]).append('\n');
+        }
+        long total = cumulative[family.bounds.length];
+        appendSeries(out, name + "_bucket", prefix + "+Inf\"").append(total).append('\n');
+        appendValue(appendSeries(out, name + "_sum", labels), histogram.getSum(), family.divisor);
+        appendSeries(out, name + "_count", labels).append(total).append('\n');
+    }
+
+    /**
+     * A value in exported units without exponent or trailing zeros, e.g. 0.0005
+     */
+    private static String scale(long value, long divisor) {
+        return BigDecimal.valueOf(value).divide(BigDecimal.valueOf(divisor)).stripTrailingZeros().toPlainString();
+    }
+
+    private static void appendValue(StringBuilder out, long value, long divisor) {
+        if (divisor == 1) {
+            out.append(value);
+        } else {
+            out.append((double) value / divisor);
+        }
+        out.append('\n');
+    }
+
+    private static StringBuilder appendSeries(StringBuilder out, String name, String labels) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        return out.append(' ');
+    }
+}
@@ -0,0 +1,184 @@
+package com.o3.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records request count by status, request and response body sizes and latency per method
+ * for one context. Added first, so the time includes authentication and 401 answers are
+ * counted too. Sizes are the bytes on the wire, i.e. compressed when the body was.
+ * Each exchange is also recorded as an HttpExchangeEvent when Flight Recorder is on.
+ */
+public class MetricsFilter extends Filter {
+    private static final String REQUESTS = "o3_http_requests_total";
+    private static final String DURATION = "o3_http_request_duration_seconds";
+    private static final String REQUEST_SIZE = "o3_http_request_size_bytes";
+    private static final String RESPONSE_SIZE = "o3_http_response_size_bytes";
+
+    // Anything else is counted as OTHER, so clients cannot create new series at will
+    private static final String[] KNOWN_METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "OPTIONS"};
+
+    /**
+     * Metrics of one method on this route. Status counters are created on first use.
+     */
+    private static class MethodMetrics {
+        final String labels;
+        final Histogram duration;
+        final Histogram requestSize;
+        final Histogram responseSize;
+        final AtomicReferenceArray<LongAdder> statuses;
+
+        MethodMetrics(String route, String method) {
+            Metrics metrics = Metrics.getInstance();
+            this.labels = Metrics.labels("route", route, "method", method);
+            this.duration = metrics.timer(DURATION, "Time from request to the end of the response", labels);
+            this.requestSize = metrics.histogram(REQUEST_SIZE, "Request body size", labels);
+            this.responseSize = metrics.histogram(RESPONSE_SIZE, "Response body size", labels);
+            this.statuses = new AtomicReferenceArray<>(600);
+        }
+
+        LongAdder requests(int status) {
+            int slot = status >= 100 && status < 600 ? status : 0;
+            LongAdder counter = statuses.get(slot);
+            if (counter == null) {
+                // Racing threads get the same counter back from the registry
+                counter = Metrics.getInstance().counter(REQUESTS, "HTTP requests by response status",
+                    labels + "," + Metrics.labels("status", slot == 0 ? "none" : Integer.toString(slot)));
+                statuses.set(slot, counter);
+            }
+            return counter;
+        }
+    }
+
+    private final String route;
+    private final Map<String, MethodMetrics> methods;
+
+    public MetricsFilter(String route) {
+        this.route = route;
+        this.methods = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long start = System.nanoTime();
+        CountingInputStream requestBody = new CountingInputStream(exchange.getRequestBody());
+        CountingOutputStream responseBody = new CountingOutputStream(exchange.getResponseBody());
+        exchange.setStreams(requestBody, responseBody);
+        HttpExchangeEvent event = new HttpExchangeEvent();
+        event.begin();
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            String method = methodOf(exchange);
+            long requestBytes = Math.max(requestBody.count, contentLength(exchange));
+            MethodMetrics metrics = methods.computeIfAbsent(method, m -> new MethodMetrics(route, m));
+            metrics.duration.record(System.nanoTime() - start);
+            metrics.requests(exchange.getResponseCode()).increment();
+            metrics.requestSize.record(requestBytes);
+            metrics.responseSize.record(responseBody.count);
+            if (event.shouldCommit()) {
+                event.method = method;
+                event.route = route;
+                event.path = exchange.getRequestURI().getPath();
+                event.status = exchange.getResponseCode();
+                event.requestBytes = requestBytes;
+                event.responseBytes = responseBody.count;
+                event.commit();
+            }
+        }
+    }
+
+    private static String methodOf(HttpExchange exchange) {
+        String method = exchange.getRequestMethod().toUpperCase(Locale.ROOT);
+        for (String known : KNOWN_METHODS) {
+            if (known.equals(method)) {
+                return known;
+            }
+        }
+        return "OTHER";
+    }
+
+    /**
+     * The announced body size, which counts bodies rejected before they were read
+     */
+    private static long contentLength(HttpExchange exchange) {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Records request metrics for " + route;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+    }
+}
@@ -9,8 +9,8 @@ public class ObservationRecord {
     private String targetBodyName;
     private String centerBodyName;
     private String epoch;
-    private JSONObject orbitalElements;
-    private JSONObject stateVector;
+    private OrbitalElements orbitalElements;
+    private StateVector stateVector;
     
     // Metadata fields
     private int id;
@@ -22,7 +22,7 @@ public class ObservationRecord {
     private String edited;
 
     public ObservationRecord(String targetBodyName, String centerBodyName, String epoch, 
-                            JSONObject orbitalElements, JSONObject stateVector) {
+                            OrbitalElements orbitalElements, StateVector stateVector) {
         this.targetBodyName = targetBodyName;
         this.centerBodyName = centerBodyName;
         this.epoch = epoch;
@@ -61,19 +61,19 @@ public class ObservationRecord {
         this.epoch = epoch;
     }
 
-    public JSONObject getOrbitalElements() {
+    public OrbitalElements getOrbitalElements() {
         return orbitalElements;
     }
 
-    public void setOrbitalElements(JSONObject orbitalElements) {
+    public void setOrbitalElements(OrbitalElements orbitalElements) {
         this.orbitalElements = orbitalElements;
     }
 
-    public JSONObject getStateVector() {
+    public StateVector getStateVector() {
         return stateVector;
     }
 
-    public void setStateVector(JSONObject stateVector) {
+    public void setStateVector(StateVector stateVector) {
         this.stateVector = stateVector;
     }
 
@@ -138,11 +138,11 @@ public class ObservationRecord {
         json.put("epoch", epoch);
         
         if (orbitalElements != null) {
-            json.put("orbital_elements", orbitalElements);
+            json.put("orbital_elements", orbitalElements.toJSON());
         }
         
         if (stateVector != null) {
-            json.put("state_vector", stateVector);
+            json.put("state_vector", stateVector.toJSON());
         }
         
         // Add metadata if available
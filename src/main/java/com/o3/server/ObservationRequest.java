@@ -0,0 +1,264 @@
+package com.o3.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The fields of a POST or PUT observation body, decoded straight from a JsonReader.
+ * Unknown fields are skipped. Known fields holding the wrong JSON type are skipped as
+ * well and only flagged, so a bulk upload can report the item and carry on with the next.
+ */
+public class ObservationRequest {
+
+    /**
+     * One entry of metadata.observatory as sent by the client
+     */
+    public static class ObservatoryInput {
+        private Double latitude;
+        private Double longitude;
+        private String observatoryName;
+        private boolean weatherRequested;
+
+        public boolean isComplete() {
+            return latitude != null && longitude != null && observatoryName != null;
+        }
+
+        public Double getLatitude() {
+            return latitude;
+        }
+
+        public Double getLongitude() {
+            return longitude;
+        }
+
+        public String getObservatoryName() {
+            return observatoryName;
+        }
+
+        public boolean isWeatherRequested() {
+            return weatherRequested;
+        }
+    }
+
+    private String targetBodyName;
+    private String centerBodyName;
+    private String epoch;
+    private boolean hasOrbitalElements;
+    private OrbitalElements orbitalElements;
+    private boolean hasStateVector;
+    private StateVector stateVector;
+    private boolean hasMetadata;
+    private String recordPayload;
+    private String recordOwner;
+    private String updateReason;
+    private List<ObservatoryInput> observatories;
+    private boolean invalidType;
+
+    /**
+     * Reads one observation object from the reader
+     */
+    public static ObservationRequest read(JsonReader reader) throws IOException {
+        ObservationRequest request = new ObservationRequest();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "target_body_name":
+                    request.targetBodyName = request.readString(reader);
+                    break;
+                case "center_body_name":
+                    request.centerBodyName = request.readString(reader);
+                    break;
+                case "epoch":
+                    request.epoch = request.readString(reader);
+                    break;
+                case "orbital_elements":
+                    if (request.isObject(reader)) {
+                        request.hasOrbitalElements = true;
+                        request.orbitalElements = OrbitalElements.read(reader);
+                    }
+                    break;
+                case "state_vector":
+                    if (request.isObject(reader)) {
+                        request.hasStateVector = true;
+                        request.stateVector = StateVector.read(reader);
+                    }
+                    break;
+                case "metadata":
+                    request.readMetadata(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return request;
+    }
+
+    private void readMetadata(JsonReader reader) throws IOException {
+        hasMetadata = true;
+        if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            skipInvalid(reader);
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "record_payload":
+                    recordPayload = readString(reader);
+                    break;
+                case "record_owner":
+                    recordOwner = readString(reader);
+                    break;
+                case "update_reason":
+                    updateReason = readString(reader);
+                    break;
+                case "observatory":
+                    readObservatories(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readObservatories(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonReader.Token.BEGIN_ARRAY) {
+            skipInvalid(reader);
+            return;
+        }
+        observatories = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+                skipInvalid(reader);
+                continue;
+            }
+            ObservatoryInput observatory = new ObservatoryInput();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "latitude":
+                        observatory.latitude = readNumber(reader);
+                        break;
+                    case "longitude":
+                        observatory.longitude = readNumber(reader);
+                        break;
+                    case "observatory_name":
+                        observatory.observatoryName = readString(reader);
+                        break;
+                    case "observatory_weather":
+                        // Any value asks for weather data
+                        reader.skipValue();
+                        observatory.weatherRequested = true;
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            observatories.add(observatory);
+        }
+        reader.endArray();
+    }
+
+    private String readString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonReader.Token.STRING) {
+            return reader.nextString();
+        }
+        skipInvalid(reader);
+        return null;
+    }
+
+    private Double readNumber(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonReader.Token.NUMBER) {
+            return reader.nextDouble();
+        }
+        skipInvalid(reader);
+        return null;
+    }
+
+    /**
+     * True if the next value is an object, otherwise skips it as invalid
+     */
+    private boolean isObject(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+            return true;
+        }
+        skipInvalid(reader);
+        return false;
+    }
+
+    private void skipInvalid(JsonReader reader) throws IOException {
+        reader.skipValue();
+        invalidType = true;
+    }
+
+    public String getTargetBodyName() {
+        return targetBodyName;
+    }
+
+    public String getCenterBodyName() {
+        return centerBodyName;
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public boolean hasOrbitalElements() {
+        return hasOrbitalElements;
+    }
+
+    /**
+     * The decoded orbital elements, null if absent or if their fields were invalid
+     */
+    public OrbitalElements getOrbitalElements() {
+        return orbitalElements;
+    }
+
+    public boolean hasStateVector() {
+        return hasStateVector;
+    }
+
+    /**
+     * The decoded state vector, null if absent or if its arrays were invalid
+     */
+    public StateVector getStateVector() {
+        return stateVector;
+    }
+
+    public boolean hasMetadata() {
+        return hasMetadata;
+    }
+
+    public String getRecordPayload() {
+        return recordPayload;
+    }
+
+    public String getRecordOwner() {
+        return recordOwner;
+    }
+
+    public String getUpdateReason() {
+        return updateReason;
+    }
+
+    /**
+     * The observatories sent in metadata, or null if there were none
+     */
+    public List<ObservatoryInput> getObservatories() {
+        return observatories;
+    }
+
+    /**
+     * True if a known field held a value of the wrong JSON type
+     */
+    public boolean hasInvalidType() {
+        return invalidType;
+    }
+}
@@ -0,0 +1,162 @@
+package com.o3.server;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * The six Keplerian orbital elements of an observation, held as primitive doubles.
+ * In the database each element has its own REAL column of the same name.
+ */
+public final class OrbitalElements {
+    // Column names in binding order, the same as the JSON field names
+    static final String[] COLUMNS = {
+        "semi_major_axis_au", "eccentricity", "inclination_deg",
+        "longitude_ascending_node_deg", "argument_of_periapsis_deg", "mean_anomaly_deg"
+    };
+
+    private final double semiMajorAxisAu;
+    private final double eccentricity;
+    private final double inclinationDeg;
+    private final double longitudeAscendingNodeDeg;
+    private final double argumentOfPeriapsisDeg;
+    private final double meanAnomalyDeg;
+
+    public OrbitalElements(double semiMajorAxisAu, double eccentricity, double inclinationDeg,
+                           double longitudeAscendingNodeDeg, double argumentOfPeriapsisDeg,
+                           double meanAnomalyDeg) {
+        this.semiMajorAxisAu = semiMajorAxisAu;
+        this.eccentricity = eccentricity;
+        this.inclinationDeg = inclinationDeg;
+        this.longitudeAscendingNodeDeg = longitudeAscendingNodeDeg;
+        this.argumentOfPeriapsisDeg = argumentOfPeriapsisDeg;
+        this.meanAnomalyDeg = meanAnomalyDeg;
+    }
+
+    /**
+     * Reads an orbital_elements object. Returns null if any of the six fields is missing
+     * or not a number; the whole object is consumed either way. Other fields are ignored.
+     */
+    public static OrbitalElements read(JsonReader reader) throws IOException {
+        double[] values = new double[6];
+        int found = 0;
+        boolean valid = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int field = fieldIndex(reader.nextName());
+            if (field == -1) {
+                reader.skipValue();
+            } else if (reader.peek() != JsonReader.Token.NUMBER) {
+                reader.skipValue();
+                valid = false;
+            } else {
+                values[field] = reader.nextDouble();
+                found |= 1 << field;
+            }
+        }
+        reader.endObject();
+        if (!valid || found != 0b111111) {
+            return null;
+        }
+        return new OrbitalElements(values[0], values[1], values[2], values[3], values[4], values[5]);
+    }
+
+    private static int fieldIndex(String name) {
+        switch (name) {
+            case "semi_major_axis_au":
+                return 0;
+            case "eccentricity":
+                return 1;
+            case "inclination_deg":
+                return 2;
+            case "longitude_ascending_node_deg":
+                return 3;
+            case "argument_of_periapsis_deg":
+                return 4;
+            case "mean_anomaly_deg":
+                return 5;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Decodes the JSON text stored by schema versions before 3
+     */
+    public static OrbitalElements fromJsonText(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return read(new JsonReader(new ByteArrayInputStream(bytes), bytes.length));
+    }
+
+    /**
+     * Reads the element columns of the current row, null if the message has no orbital elements
+     */
+    public static OrbitalElements fromResultSet(ResultSet resultSet) throws SQLException {
+        double semiMajorAxisAu = resultSet.getDouble(COLUMNS[0]);
+        if (resultSet.wasNull()) {
+            return null;
+        }
+        return new OrbitalElements(semiMajorAxisAu,
+            resultSet.getDouble(COLUMNS[1]), resultSet.getDouble(COLUMNS[2]), resultSet.getDouble(COLUMNS[3]),
+            resultSet.getDouble(COLUMNS[4]), resultSet.getDouble(COLUMNS[5]));
+    }
+
+    /**
+     * Binds the six element columns starting at parameter index first, NULLs if elements is null
+     */
+    public static void bind(PreparedStatement statement, int first, OrbitalElements elements) throws SQLException {
+        if (elements == null) {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                statement.setNull(first + i, Types.REAL);
+            }
+            return;
+        }
+        statement.setDouble(first, elements.semiMajorAxisAu);
+        statement.setDouble(first + 1, elements.eccentricity);
+        statement.setDouble(first + 2, elements.inclinationDeg);
+        statement.setDouble(first + 3, elements.longitudeAscendingNodeDeg);
+        statement.setDouble(first + 4, elements.argumentOfPeriapsisDeg);
+        statement.setDouble(first + 5, elements.meanAnomalyDeg);
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("semi_major_axis_au", semiMajorAxisAu);
+        json.put("eccentricity", eccentricity);
+        json.put("inclination_deg", inclinationDeg);
+        json.put("longitude_ascending_node_deg", longitudeAscendingNodeDeg);
+        json.put("argument_of_periapsis_deg", argumentOfPeriapsisDeg);
+        json.put("mean_anomaly_deg", meanAnomalyDeg);
+        return json;
+    }
+
+    public double getSemiMajorAxisAu() {
+        return semiMajorAxisAu;
+    }
+
+    public double getEccentricity() {
+        return eccentricity;
+    }
+
+    public double getInclinationDeg() {
+        return inclinationDeg;
+    }
+
+    public double getLongitudeAscendingNodeDeg() {
+        return longitudeAscendingNodeDeg;
+    }
+
+    public double getArgumentOfPeriapsisDeg() {
+        return argumentOfPeriapsisDeg;
+    }
+
+    public double getMeanAnomalyDeg() {
+        return meanAnomalyDeg;
+    }
+}
@@ -0,0 +1,27 @@
+package com.o3.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one SHA-512 crypt in UserAuthenticator
+ */
+@Name("com.o3.server.PasswordHash")
+@Label("Password Hash")
+@Category({"O3 Server", "Authentication"})
+@Description("A password hashed to register a user or to verify Basic credentials")
+public class PasswordHashEvent extends Event {
+    static final String REGISTER = "register";
+    static final String VERIFY = "verify";
+
+    @Label("Operation")
+    @Description("register or verify")
+    String operation;
+
+    @Label("Matched")
+    @Description("Whether the password matched the stored hash, always true for register")
+    boolean matched;
+}
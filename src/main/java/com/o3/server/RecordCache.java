@@ -0,0 +1,121 @@
+package com.o3.server;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decoded records recently read by id. Lookups are lock-free; when the cache is full a
+ * CLOCK sweep evicts records that were not read since the previous sweep, so frequently
+ * read records stay. Cached records are shared between threads and must not be modified.
+ * <p>
+ * A reader that loaded a record from the database only stores it if no record was
+ * invalidated in the meantime, so a read racing with an update can never put the old
+ * version back after the update removed it.
+ */
+public class RecordCache {
+
+    private static class Entry {
+        final ObservationRecord record;
+        volatile boolean referenced;
+
+        Entry(ObservationRecord record) {
+            this.record = record;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Entry> entries;
+    private final int maxEntries;
+    private final AtomicLong invalidations;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * A maximum of zero or less disables the cache
+     */
+    public RecordCache(int maxEntries) {
+        this.entries = new ConcurrentHashMap<>();
+        this.maxEntries = maxEntries;
+        this.invalidations = new AtomicLong();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    public ObservationRecord get(int id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry.record;
+    }
+
+    /**
+     * Stamp to take before reading a record from the database and to hand to put
+     */
+    public long beginLoad() {
+        return invalidations.get();
+    }
+
+    /**
+     * Stores a record read from the database, unless a record was invalidated since the
+     * stamp was taken
+     */
+    public void put(int id, ObservationRecord record, long stamp) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        if (entries.size() >= maxEntries && !entries.containsKey(id)) {
+            evict();
+        }
+        entries.put(id, new Entry(record));
+        if (invalidations.get() != stamp) {
+            // An update committed while the record was being read, it may be the old version
+            entries.remove(id);
+        }
+    }
+
+    /**
+     * Forgets a record whose row has changed. Call after the change is committed.
+     */
+    public void invalidate(int id) {
+        invalidations.incrementAndGet();
+        entries.remove(id);
+    }
+
+    /**
+     * Second-chance sweep: clears the referenced flag of recently read records and removes
+     * the others until a tenth of the capacity is free
+     */
+    private void evict() {
+        int target = maxEntries - Math.max(1, maxEntries / 10);
+        for (int pass = 0; pass < 2 && entries.size() > target; pass++) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext() && entries.size() > target) {
+                Entry entry = it.next();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,287 @@
+package com.o3.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes committed records to live subscribers as Server-Sent Events frames. Every
+ * subscriber has a bounded queue drained by a small shared writer pool, so publishing
+ * never blocks on a network write. A subscriber whose queue overflows is too slow to keep
+ * up and is disconnected; it can catch up through the change feed and subscribe again.
+ * <p>
+ * Only the writer task of a subscriber touches its sink, closing included. A write that
+ * takes longer than the write timeout is aborted by interrupting the writer, which closes
+ * the blocked socket channel, so a stalled client holds a writer thread for at most that
+ * long.
+ */
+public class RecordEventBus {
+    private static final byte[] HEARTBEAT_FRAME = ": keepalive\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Where the frames of one subscriber go. Calls for one subscriber never overlap.
+     */
+    public interface Sink {
+        void write(byte[] frame) throws IOException;
+
+        void flush() throws IOException;
+
+        void close();
+    }
+
+    private final class Subscriber implements Runnable {
+        private final Sink sink;
+        private final ArrayBlockingQueue<byte[]> queue;
+        private final AtomicBoolean scheduled;
+        private final AtomicBoolean closed;
+        // Set by the writer task only
+        private volatile boolean sinkClosed;
+        // The thread inside a sink call and when the call started, guarded by this
+        private Thread writer;
+        private long callStarted;
+
+        Subscriber(Sink sink) {
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.scheduled = new AtomicBoolean();
+            this.closed = new AtomicBoolean();
+        }
+
+        void offer(byte[] frame) {
+            if (closed.get()) {
+                return;
+            }
+            if (!queue.offer(frame)) {
+                dropped.increment();
+                Log.warn("Disconnecting event stream subscriber, {} frames behind", queueCapacity);
+                close();
+                return;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                writers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                byte[] frame;
+                while (!closed.get() && (frame = queue.poll()) != null) {
+                    beginCall();
+                    try {
+                        sink.write(frame);
+                    } finally {
+                        endCall();
+                    }
+                }
+                if (!closed.get()) {
+                    beginCall();
+                    try {
+                        sink.flush();
+                    } finally {
+                        endCall();
+                    }
+                }
+            } catch (IOException e) {
+                // The client went away, or the write timed out and was aborted
+                closed.set(true);
+            } finally {
+                if (closed.get()) {
+                    closeSink();
+                }
+                scheduled.set(false);
+            }
+            // A frame offered, or a close requested, between the last check and clearing the flag
+            // must not wait for the next frame
+            if (closed.get() ? !sinkClosed : !queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /**
+         * Asks the writer task to close the sink. Safe to call from any thread.
+         */
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                queue.clear();
+                schedule();
+            }
+        }
+
+        private void closeSink() {
+            if (sinkClosed) {
+                return;
+            }
+            sinkClosed = true;
+            queue.clear();
+            beginCall();
+            try {
+                sink.close();
+            } finally {
+                endCall();
+                // Removed last, so the watchdog also covers a close that blocks
+                subscribers.remove(this);
+            }
+        }
+
+        private synchronized void beginCall() {
+            writer = Thread.currentThread();
+            callStarted = System.nanoTime();
+        }
+
+        private void endCall() {
+            synchronized (this) {
+                writer = null;
+            }
+            // The watchdog can no longer interrupt this call; do not leak its interrupt to the next task
+            Thread.interrupted();
+        }
+
+        /**
+         * Aborts the current sink call if it has been blocked longer than the write timeout
+         */
+        synchronized void checkDeadline(long now) {
+            if (writer != null && now - callStarted > writeTimeoutNanos) {
+                if (closed.compareAndSet(false, true)) {
+                    timedOut.increment();
+                    Log.warn("Disconnecting event stream subscriber, write blocked for over {} ms",
+                        TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos));
+                }
+                queue.clear();
+                // Interrupting a thread blocked on a socket channel closes the channel
+                writer.interrupt();
+            }
+        }
+    }
+
+    private final Set<Subscriber> subscribers;
+    private final int maxSubscribers;
+    private final int queueCapacity;
+    private final long writeTimeoutNanos;
+    private final ExecutorService writers;
+    private final ScheduledExecutorService heartbeat;
+    private final LongAdder published;
+    private final LongAdder dropped;
+    private final LongAdder timedOut;
+
+    public RecordEventBus(int maxSubscribers, int queueCapacity, int writerThreads, long heartbeatSeconds,
+                          long writeTimeoutMs) {
+        this.subscribers = ConcurrentHashMap.newKeySet();
+        this.maxSubscribers = maxSubscribers;
+        this.queueCapacity = queueCapacity;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, writeTimeoutMs));
+        this.writers = Executors.newFixedThreadPool(writerThreads, AdmissionExecutor.namedThreads("event-stream-writer"));
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(AdmissionExecutor.namedThreads("event-stream-heartbeat"));
+        this.published = new LongAdder();
+        this.dropped = new LongAdder();
+        this.timedOut = new LongAdder();
+
+        // Comment frames keep proxies from timing out quiet streams and reveal dead clients
+        heartbeat.scheduleAtFixedRate(() -> offerAll(HEARTBEAT_FRAME),
+            heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        long checkMs = Math.max(10, Math.min(1000, writeTimeoutMs / 4));
+        heartbeat.scheduleAtFixedRate(this::checkDeadlines, checkMs, checkMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers a sink and queues its first frame. Returns false, without touching the
+     * sink, if the bus already has maxSubscribers.
+     */
+    public boolean subscribe(Sink sink, byte[] openingFrame) {
+        Subscriber subscriber = new Subscriber(sink);
+        synchronized (subscribers) {
+            if (subscribers.size() >= maxSubscribers) {
+                return false;
+            }
+            subscribers.add(subscriber);
+        }
+        subscriber.offer(openingFrame);
+        return true;
+    }
+
+    /**
+     * True if anyone is listening, so publishers can skip building events
+     */
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    /**
+     * Sends a record to every subscriber as an event of the given type. The event id is the
+     * change_seq of the stored row, so a client can resume from the change feed with
+     * since=Last-Event-ID. The JSON must not contain line breaks, which holds for the
+     * compact output of toString().
+     */
+    public void publish(String event, long changeSeq, String json) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        String frame = "id: " + changeSeq + "\nevent: " + event + "\ndata: " + json + "\n\n";
+        published.increment();
+        offerAll(frame.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void checkDeadlines() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.checkDeadline(now);
+        }
+    }
+
+    private void offerAll(byte[] frame) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(frame);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public long getPublishedCount() {
+        return published.sum();
+    }
+
+    /**
+     * Number of subscribers disconnected for falling behind
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Number of subscribers disconnected because a write blocked past the write timeout
+     */
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+        writers.shutdown();
+        try {
+            // Closing a stream writes its last chunk; give up on clients that do not take it
+            if (!writers.awaitTermination(TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos), TimeUnit.MILLISECONDS)) {
+                writers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.o3.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialized UTF-8 JSON of recently read records, so GET responses are assembled from
+ * cached bytes instead of rebuilding and printing JSON trees. An entry is keyed by record
+ * id and edit version; a reader that saw an older version of the row never gets (or
+ * overwrites) the bytes of a newer one.
+ * <p>
+ * Lookups are lock-free, as every row of a streamed GET does one. The cache is bounded by
+ * a byte budget: when it is exceeded a CLOCK sweep evicts records that were not read since
+ * the previous sweep, like RecordCache. Concurrent puts may overshoot the budget by the
+ * records they are adding until the sweep catches up.
+ */
+public class RecordJsonCache {
+    // Rough per-entry cost of the map node, entry and array headers
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private static class Entry {
+        final long version;
+        final byte[] json;
+        volatile boolean referenced;
+
+        Entry(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+
+        long cost() {
+            return json.length + ENTRY_OVERHEAD_BYTES;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Entry> entries;
+    private final long maxBytes;
+    private final AtomicLong usedBytes;
+    // Only one thread sweeps at a time, the others go on with their request
+    private final AtomicBoolean evicting;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * A budget of zero or less disables the cache
+     */
+    public RecordJsonCache(long maxBytes) {
+        this.entries = new ConcurrentHashMap<>(1024);
+        this.maxBytes = maxBytes;
+        this.usedBytes = new AtomicLong();
+        this.evicting = new AtomicBoolean();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    /**
+     * Returns the cached JSON of a record if it was stored for this exact version, otherwise null
+     */
+    public byte[] get(int id, long version) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        Entry entry = entries.get(id);
+        if (entry == null || entry.version != version) {
+            misses.increment();
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry.json;
+    }
+
+    /**
+     * Stores the JSON of a record version, evicting records not read recently to stay in budget.
+     * The array must not be modified afterwards.
+     */
+    public void put(int id, long version, byte[] json) {
+        Entry entry = new Entry(version, json);
+        if (entry.cost() > maxBytes) {
+            return;
+        }
+        Entry stored = entries.merge(id, entry, (previous, next) -> {
+            // Never let a slow reader replace a newer version
+            if (previous.version > next.version) {
+                return previous;
+            }
+            usedBytes.addAndGet(-previous.cost());
+            return next;
+        });
+        if (stored != entry) {
+            return;
+        }
+        if (usedBytes.addAndGet(entry.cost()) > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Forgets a record whose row has changed
+     */
+    public void invalidate(int id) {
+        Entry previous = entries.remove(id);
+        if (previous != null) {
+            usedBytes.addAndGet(-previous.cost());
+        }
+    }
+
+    public void clear() {
+        for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void remove(int id, Entry entry) {
+        if (entries.remove(id, entry)) {
+            usedBytes.addAndGet(-entry.cost());
+        }
+    }
+
+    /**
+     * Second-chance sweep: clears the referenced flag of recently read records and removes
+     * the others until a tenth of the budget is free
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long target = maxBytes - maxBytes / 10;
+            for (int pass = 0; pass < 2 && usedBytes.get() > target; pass++) {
+                Iterator<Map.Entry<Integer, Entry>> it = entries.entrySet().iterator();
+                while (it.hasNext() && usedBytes.get() > target) {
+                    Map.Entry<Integer, Entry> next = it.next();
+                    Entry entry = next.getValue();
+                    if (entry.referenced) {
+                        entry.referenced = false;
+                    } else {
+                        remove(next.getKey(), entry);
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,328 @@
+package com.o3.server;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
+/**
+ * Filters and keyset pagination for reading messages. Only the filters that are set
+ * become part of the WHERE clause, so each combination maps to one SQL template that the
+ * pooled connections keep prepared.
+ * <p>
+ * Without a range filter records come in id order, and an equality filter reads its
+ * (column, id) index from after_id on. A range on epoch or record_time_received can only
+ * be read from its index in column order, so such a query is ordered by (column, id)
+ * instead and after_id continues after that record's position in this order. SQLite ends
+ * every index with the rowid, so both are keyset scans that stop after one page.
+ * <p>
+ * With a since cursor the query is a change feed instead: messages inserted or updated
+ * after that change_seq, in change order, up to the cursor fixed by
+ * MessageDatabase.resolveChangeCursor. Equality filters read their (column, change_seq)
+ * index, every other feed walks the change_seq index.
+ */
+public class RecordQuery {
+    private int afterId;
+    private int limit;
+    private long since;
+    private long changeCursor;
+    private String targetBodyName;
+    private String centerBodyName;
+    private String recordOwner;
+    private Long receivedFrom;
+    private Long receivedTo;
+    private String epochFrom;
+    private String epochTo;
+
+    public RecordQuery() {
+        this.afterId = 0;
+        this.limit = -1;
+        this.since = -1;
+        this.changeCursor = Long.MAX_VALUE;
+    }
+
+    /**
+     * Builds a query from GET parameters. Throws IllegalArgumentException naming the first
+     * parameter that has an invalid value.
+     */
+    public static RecordQuery fromParameters(Map<String, String> params, int maxLimit) {
+        RecordQuery query = new RecordQuery();
+        try {
+            if (params.containsKey("after_id")) {
+                query.afterId = Integer.parseInt(params.get("after_id"));
+            }
+            if (params.containsKey("limit")) {
+                query.limit = Integer.parseInt(params.get("limit"));
+                if (query.limit < 1 || query.limit > maxLimit) {
+                    throw new IllegalArgumentException("Invalid pagination parameters");
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid pagination parameters");
+        }
+        if (query.afterId < 0) {
+            throw new IllegalArgumentException("Invalid pagination parameters");
+        }
+
+        if (params.containsKey("since")) {
+            if (params.containsKey("after_id")) {
+                throw new IllegalArgumentException("since cannot be combined with after_id");
+            }
+            try {
+                query.since = Long.parseLong(params.get("since"));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for since");
+            }
+            if (query.since < 0) {
+                throw new IllegalArgumentException("Invalid value for since");
+            }
+        }
+
+        query.targetBodyName = params.get("target_body_name");
+        query.centerBodyName = params.get("center_body_name");
+        query.recordOwner = params.get("record_owner");
+        query.receivedFrom = parseTime(params, "received_from");
+        query.receivedTo = parseTime(params, "received_to");
+        query.epochFrom = parseEpoch(params, "epoch_from");
+        query.epochTo = parseEpoch(params, "epoch_to");
+        return query;
+    }
+
+    private static Long parseTime(Map<String, String> params, String name) {
+        Instant time = parseInstant(params, name);
+        return time != null ? time.toEpochMilli() : null;
+    }
+
+    /**
+     * Epochs are stored as ISO-8601 UTC text, so the bound is normalized to that form and
+     * compared as a string
+     */
+    private static String parseEpoch(Map<String, String> params, String name) {
+        Instant time = parseInstant(params, name);
+        return time != null ? time.toString() : null;
+    }
+
+    /**
+     * Accepts an ISO-8601 instant like record_time_received, or epoch milliseconds
+     */
+    private static Instant parseInstant(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            if (!value.isEmpty() && value.chars().allMatch(Character::isDigit)) {
+                return Instant.ofEpochMilli(Long.parseLong(value));
+            }
+            return Instant.parse(value);
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid value for " + name);
+        }
+    }
+
+    /**
+     * The range column that orders the records ahead of id, or null for plain id order
+     */
+    private String rangeColumn() {
+        if (epochFrom != null || epochTo != null) {
+            return "epoch";
+        }
+        if (receivedFrom != null || receivedTo != null) {
+            return "record_time_received";
+        }
+        return null;
+    }
+
+    /**
+     * The WHERE clause for the set filters, with m as the messages alias
+     */
+    public String toWhereClause() {
+        String rangeColumn = rangeColumn();
+        StringBuilder where = new StringBuilder();
+        if (isChangeFeed()) {
+            where.append("WHERE m.change_seq > ? AND m.change_seq <= ?");
+        } else if (rangeColumn != null) {
+            // Continue after the position of record after_id; an id that does not exist
+            // (like the default 0) starts below every value of the column
+            String lowest = rangeColumn.equals("epoch") ? "''" : String.valueOf(Long.MIN_VALUE);
+            where.append("WHERE (m.").append(rangeColumn).append(", m.id) > (COALESCE((SELECT ")
+                .append(rangeColumn).append(" FROM messages WHERE id = ?), ").append(lowest).append("), ?)");
+        } else {
+            where.append("WHERE m.id > ?");
+        }
+        if (targetBodyName != null) {
+            where.append(" AND m.target_body_name = ?");
+        }
+        if (centerBodyName != null) {
+            where.append(" AND m.center_body_name = ?");
+        }
+        if (recordOwner != null) {
+            where.append(" AND m.record_owner = ?");
+        }
+        // A range index cannot return changes in change_seq order, so the unary + keeps a
+        // change feed on the change_seq (or equality filter) index
+        String range = isChangeFeed() ? " AND +m." : " AND m.";
+        if (receivedFrom != null) {
+            where.append(range).append("record_time_received >= ?");
+        }
+        if (receivedTo != null) {
+            where.append(range).append("record_time_received <= ?");
+        }
+        // Epochs are ISO-8601 UTC text, which orders correctly as strings
+        if (epochFrom != null) {
+            where.append(range).append("epoch >= ?");
+        }
+        if (epochTo != null) {
+            where.append(range).append("epoch <= ?");
+        }
+        return where.append(' ').toString();
+    }
+
+    public String toOrderClause() {
+        if (isChangeFeed()) {
+            return "ORDER BY m.change_seq ";
+        }
+        String rangeColumn = rangeColumn();
+        return rangeColumn != null ? "ORDER BY m." + rangeColumn + ", m.id " : "ORDER BY m.id ";
+    }
+
+    /**
+     * Binds the parameters of toWhereClause starting at index 1, returns the next free index
+     */
+    public int bind(PreparedStatement statement) throws SQLException {
+        int index = 1;
+        if (isChangeFeed()) {
+            statement.setLong(index++, since);
+            statement.setLong(index++, changeCursor);
+        } else if (rangeColumn() != null) {
+            statement.setInt(index++, afterId);
+            statement.setInt(index++, afterId);
+        } else {
+            statement.setInt(index++, afterId);
+        }
+        if (targetBodyName != null) {
+            statement.setString(index++, targetBodyName);
+        }
+        if (centerBodyName != null) {
+            statement.setString(index++, centerBodyName);
+        }
+        if (recordOwner != null) {
+            statement.setString(index++, recordOwner);
+        }
+        if (receivedFrom != null) {
+            statement.setLong(index++, receivedFrom);
+        }
+        if (receivedTo != null) {
+            statement.setLong(index++, receivedTo);
+        }
+        if (epochFrom != null) {
+            statement.setString(index++, epochFrom);
+        }
+        if (epochTo != null) {
+            statement.setString(index++, epochTo);
+        }
+        return index;
+    }
+
+    /**
+     * True if the query reads changes after a since cursor rather than a page of ids
+     */
+    public boolean isChangeFeed() {
+        return since >= 0;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public void setSince(long since) {
+        this.since = since;
+    }
+
+    /**
+     * The last change_seq included in a change feed query
+     */
+    public long getChangeCursor() {
+        return changeCursor;
+    }
+
+    public void setChangeCursor(long changeCursor) {
+        this.changeCursor = changeCursor;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    public void setAfterId(int afterId) {
+        this.afterId = afterId;
+    }
+
+    /**
+     * Maximum number of records, negative for no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public String getTargetBodyName() {
+        return targetBodyName;
+    }
+
+    public void setTargetBodyName(String targetBodyName) {
+        this.targetBodyName = targetBodyName;
+    }
+
+    public String getCenterBodyName() {
+        return centerBodyName;
+    }
+
+    public void setCenterBodyName(String centerBodyName) {
+        this.centerBodyName = centerBodyName;
+    }
+
+    public String getRecordOwner() {
+        return recordOwner;
+    }
+
+    public void setRecordOwner(String recordOwner) {
+        this.recordOwner = recordOwner;
+    }
+
+    public Long getReceivedFrom() {
+        return receivedFrom;
+    }
+
+    public void setReceivedFrom(Long receivedFrom) {
+        this.receivedFrom = receivedFrom;
+    }
+
+    public Long getReceivedTo() {
+        return receivedTo;
+    }
+
+    public void setReceivedTo(Long receivedTo) {
+        this.receivedTo = receivedTo;
+    }
+
+    public String getEpochFrom() {
+        return epochFrom;
+    }
+
+    public void setEpochFrom(String epochFrom) {
+        this.epochFrom = epochFrom;
+    }
+
+    public String getEpochTo() {
+        return epochTo;
+    }
+
+    public void setEpochTo(String epochTo) {
+        this.epochTo = epochTo;
+    }
+}
@@ -3,26 +3,28 @@ package com.o3.server;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
 
 public class RegistrationHandler implements HttpHandler {
     private final UserAuthenticator authenticator;
+    private final long maxBodyBytes;
 
     public RegistrationHandler(UserAuthenticator authenticator) {
+        this(authenticator, Server.DEFAULT_MAX_BODY_BYTES);
+    }
+
+    public RegistrationHandler(UserAuthenticator authenticator, long maxBodyBytes) {
         this.authenticator = authenticator;
+        this.maxBodyBytes = maxBodyBytes;
     }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        // Log thread ID for verification during testing
-        System.out.println("Registration request handled in thread " + Thread.currentThread().getId());
+        Log.debug("Registration request handled: {}", exchange.getRequestMethod());
         
         if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
             handlePost(exchange);
@@ -47,26 +49,47 @@ public class RegistrationHandler implements HttpHandler {
                 return;
             }
 
-            // Read request body
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
-            String requestBody = reader.lines().collect(Collectors.joining("\n"));
-            reader.close();
-
-            // Parse JSON
-            JSONObject json = new JSONObject(requestBody);
+            // Decode the four string fields straight from the request body bytes, inflating them if compressed
+            InputStream body = HttpCompression.requestBody(exchange);
+            if (body == null) {
+                sendResponse(exchange, 415, "Unsupported Content-Encoding");
+                return;
+            }
+            String username = null;
+            String password = null;
+            String email = null;
+            String nickname = null;
+            JsonReader reader = new JsonReader(body, maxBodyBytes);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "username":
+                        username = reader.nextString();
+                        break;
+                    case "password":
+                        password = reader.nextString();
+                        break;
+                    case "email":
+                        email = reader.nextString();
+                        break;
+                    case "nickname":
+                        nickname = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            reader.endDocument();
+            body.close();
             
             // Validate required fields
-            if (!json.has("username") || !json.has("password") || !json.has("email") || !json.has("nickname")) {
+            if (username == null || password == null || email == null || nickname == null) {
                 sendResponse(exchange, 400, "Missing required fields: username, password, email, nickname");
                 return;
             }
 
-            String username = json.getString("username");
-            String password = json.getString("password");
-            String email = json.getString("email");
-            String nickname = json.getString("nickname");
-
             // Validate fields are not empty
             if (username.trim().isEmpty() || password.trim().isEmpty() || 
                 email.trim().isEmpty() || nickname.trim().isEmpty()) {
@@ -81,6 +104,8 @@ public class RegistrationHandler implements HttpHandler {
             } else {
                 sendResponse(exchange, 409, "User already registered");
             }
+        } catch (JsonReader.TooLargeException e) {
+            sendResponse(exchange, 413, "Request body too large");
         } catch (JSONException e) {
             sendResponse(exchange, 400, "Invalid JSON format");
         }
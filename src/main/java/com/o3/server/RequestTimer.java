@@ -0,0 +1,143 @@
+package com.o3.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Splits the handling of one request into consecutive named phases using the monotonic
+ * clock. Each call to phase closes the phase that started at the previous call (or when the
+ * request arrived), so marking costs one System.nanoTime() and no allocation. Phases with
+ * the same name add up, e.g. weather lookups for several observatories.
+ * <p>
+ * The timer of an exchange is created by the filter, before authentication, and read by the
+ * handler with of(exchange). Handlers add the phases finished so far as a Server-Timing
+ * header right before sending response headers; whatever happens after the last phase is
+ * recorded as "respond". Requests slower than a threshold are logged with all phases.
+ */
+public final class RequestTimer {
+    private static final String ATTRIBUTE = RequestTimer.class.getName();
+    private static final int MAX_PHASES = 12;
+
+    // Handed out when no filter created a timer, records nothing
+    private static final RequestTimer NONE = new RequestTimer(0);
+
+    private final long start;
+    private final String[] names;
+    private final long[] durations;
+    private long mark;
+    private int count;
+
+    private RequestTimer(int capacity) {
+        this.start = System.nanoTime();
+        this.names = new String[capacity];
+        this.durations = new long[capacity];
+        this.mark = start;
+        this.count = 0;
+    }
+
+    /**
+     * The timer of this exchange, or one that ignores all calls if the filter is not installed
+     */
+    public static RequestTimer of(HttpExchange exchange) {
+        Object timer = exchange.getAttribute(ATTRIBUTE);
+        return timer instanceof RequestTimer ? (RequestTimer) timer : NONE;
+    }
+
+    /**
+     * Ends the current phase under the given name and starts the next one
+     */
+    public void phase(String name) {
+        if (names.length == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long duration = now - mark;
+        mark = now;
+        for (int i = 0; i < count; i++) {
+            if (names[i].equals(name)) {
+                durations[i] += duration;
+                return;
+            }
+        }
+        if (count < names.length) {
+            names[count] = name;
+            durations[count] = duration;
+            count++;
+        }
+    }
+
+    /**
+     * Sets the Server-Timing header to the phases recorded so far and the total time
+     */
+    public void addServerTiming(HttpExchange exchange) {
+        if (names.length == 0) {
+            return;
+        }
+        StringBuilder header = new StringBuilder(16 * (count + 1));
+        for (int i = 0; i < count; i++) {
+            appendMillis(header.append(names[i]).append(";dur="), durations[i]).append(", ");
+        }
+        appendMillis(header.append("total;dur="), System.nanoTime() - start);
+        exchange.getResponseHeaders().set("Server-Timing", header.toString());
+    }
+
+    private static StringBuilder appendMillis(StringBuilder out, long nanos) {
+        return out.append(String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0));
+    }
+
+    private String describe() {
+        StringBuilder phases = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                phases.append(' ');
+            }
+            appendMillis(phases.append(names[i]).append('='), durations[i]).append("ms");
+        }
+        return phases.toString();
+    }
+
+    /**
+     * Filter that times every exchange of its context. Exchanges taking at least
+     * slowThresholdMs are counted, and one in every logEvery of them is logged with its
+     * phases. A negative threshold turns the slow-request log off.
+     */
+    public static Filter filter(long slowThresholdMs, int logEvery) {
+        long thresholdNanos = slowThresholdMs < 0 ? -1 : slowThresholdMs * 1_000_000L;
+        int sampleEvery = Math.max(1, logEvery);
+        LongAdder slowRequests = Metrics.getInstance().counter("o3_slow_requests_total",
+            "Requests that took at least the slow-request threshold", "");
+        AtomicLong slowSeen = new AtomicLong();
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                RequestTimer timer = new RequestTimer(MAX_PHASES);
+                exchange.setAttribute(ATTRIBUTE, timer);
+                try {
+                    chain.doFilter(exchange);
+                } finally {
+                    timer.phase("respond");
+                    long total = timer.mark - timer.start;
+                    if (thresholdNanos >= 0 && total >= thresholdNanos) {
+                        slowRequests.increment();
+                        if (slowSeen.getAndIncrement() % sampleEvery == 0) {
+                            Log.warn("Slow request {}: {}",
+                                exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath() + " "
+                                    + exchange.getResponseCode() + " in " + (total / 1_000_000) + " ms",
+                                timer.describe());
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public String description() {
+                return "Times request phases and logs slow requests";
+            }
+        };
+    }
+}
@@ -0,0 +1,217 @@
+package com.o3.server;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Brings a database up to the current schema. The schema version is kept in SQLite's
+ * PRAGMA user_version; each migration runs in its own transaction together with the
+ * version bump, so an interrupted upgrade resumes at the failed step on the next start.
+ * New migrations are appended to MIGRATIONS and must never be changed once released.
+ */
+public final class SchemaMigrations {
+
+    /**
+     * One schema change, applied inside a transaction
+     */
+    private interface Migration {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    private static final Migration[] MIGRATIONS = {
+        SchemaMigrations::createBaseSchema,
+        SchemaMigrations::indexObservatoriesByMessage,
+        SchemaMigrations::splitOrbitalDataIntoColumns,
+        SchemaMigrations::indexMessageFilters,
+        SchemaMigrations::addChangeSequence,
+        SchemaMigrations::indexChangesByFilter,
+    };
+
+    private SchemaMigrations() {
+    }
+
+    public static int getLatestVersion() {
+        return MIGRATIONS.length;
+    }
+
+    /**
+     * Applies every migration newer than the database's version
+     */
+    public static void migrate(Connection connection) throws SQLException {
+        int version = getUserVersion(connection);
+
+        // Databases created before versioning have the base schema but user_version 0
+        if (version == 0 && tableExists(connection, "messages")) {
+            setUserVersion(connection, 1);
+            version = 1;
+        }
+
+        if (version > MIGRATIONS.length) {
+            throw new SQLException("Database schema version " + version +
+                                   " is newer than the supported version " + MIGRATIONS.length);
+        }
+
+        for (int next = version; next < MIGRATIONS.length; next++) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                MIGRATIONS[next].apply(connection);
+                setUserVersion(connection, next + 1);
+                connection.commit();
+            } catch (Throwable t) {
+                // Restoring auto-commit below would commit a half-applied migration
+                connection.rollback();
+                throw t;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            Log.info("Database schema migrated to version {}", next + 1);
+        }
+    }
+
+    private static int getUserVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA user_version")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    private static void setUserVersion(Connection connection, int version) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA user_version = " + version);
+        }
+    }
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                 "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            statement.setString(1, table);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    // Version 1: users, messages with orbital data as JSON text, observatories
+    private static void createBaseSchema(Connection connection) throws SQLException {
+        execute(connection, "CREATE TABLE users (" +
+            "username TEXT PRIMARY KEY NOT NULL, " +
+            "password TEXT NOT NULL, " +
+            "email TEXT NOT NULL, " +
+            "nickname TEXT NOT NULL)");
+
+        execute(connection, "CREATE TABLE messages (" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "target_body_name TEXT NOT NULL, " +
+            "center_body_name TEXT NOT NULL, " +
+            "epoch TEXT NOT NULL, " +
+            "orbital_elements TEXT, " +
+            "state_vector TEXT, " +
+            "record_payload TEXT, " +
+            "record_time_received INTEGER NOT NULL, " +
+            "record_owner TEXT NOT NULL, " +
+            "update_reason TEXT, " +
+            "edited INTEGER)");
+
+        execute(connection, "CREATE TABLE observatories (" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "message_id INTEGER NOT NULL, " +
+            "latitude REAL NOT NULL, " +
+            "longitude REAL NOT NULL, " +
+            "observatory_name TEXT NOT NULL, " +
+            "temperature_in_kelvins REAL, " +
+            "cloudiness_percentage REAL, " +
+            "background_light_volume REAL, " +
+            "FOREIGN KEY (message_id) REFERENCES messages(id))");
+    }
+
+    // Version 2: observatories are always looked up by their message
+    private static void indexObservatoriesByMessage(Connection connection) throws SQLException {
+        execute(connection, "CREATE INDEX IF NOT EXISTS idx_observatories_message_id ON observatories(message_id)");
+    }
+
+    // Version 3: one REAL column per orbital element and packed double BLOBs for the state
+    // vector, so rows can be filtered on them and reads need no JSON parsing
+    private static void splitOrbitalDataIntoColumns(Connection connection) throws SQLException {
+        for (String column : OrbitalElements.COLUMNS) {
+            execute(connection, "ALTER TABLE messages ADD COLUMN " + column + " REAL");
+        }
+        execute(connection, "ALTER TABLE messages ADD COLUMN position_au BLOB");
+        execute(connection, "ALTER TABLE messages ADD COLUMN velocity_au_per_day BLOB");
+
+        String update = "UPDATE messages SET " + String.join(" = ?, ", OrbitalElements.COLUMNS) +
+            " = ?, position_au = ?, velocity_au_per_day = ? WHERE id = ?";
+        int converted = 0;
+        try (Statement select = connection.createStatement();
+             ResultSet resultSet = select.executeQuery(
+                 "SELECT id, orbital_elements, state_vector FROM messages " +
+                 "WHERE orbital_elements IS NOT NULL OR state_vector IS NOT NULL");
+             PreparedStatement statement = connection.prepareStatement(update)) {
+            while (resultSet.next()) {
+                int id = resultSet.getInt(1);
+                String orbitalElements = resultSet.getString(2);
+                String stateVector = resultSet.getString(3);
+                try {
+                    OrbitalElements.bind(statement, 1,
+                        orbitalElements != null ? OrbitalElements.fromJsonText(orbitalElements) : null);
+                    StateVector.bind(statement, 7,
+                        stateVector != null ? StateVector.fromJsonText(stateVector) : null);
+                } catch (IOException | JSONException e) {
+                    Log.warn("Dropping unreadable orbital data of message {}: {}", id, e.getMessage());
+                    OrbitalElements.bind(statement, 1, null);
+                    StateVector.bind(statement, 7, null);
+                }
+                statement.setInt(9, id);
+                statement.addBatch();
+                if (++converted % 1000 == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+
+        execute(connection, "ALTER TABLE messages DROP COLUMN orbital_elements");
+        execute(connection, "ALTER TABLE messages DROP COLUMN state_vector");
+        Log.info("Moved orbital data of {} messages into columns", converted);
+    }
+
+    // Version 4: indexes for the GET filters. The equality filters end in id so a filtered
+    // page is read in id order without sorting; a range is read in (column, rowid) order.
+    private static void indexMessageFilters(Connection connection) throws SQLException {
+        execute(connection, "CREATE INDEX IF NOT EXISTS idx_messages_target_body ON messages(target_body_name, id)");
+        execute(connection, "CREATE INDEX IF NOT EXISTS idx_messages_center_body ON messages(center_body_name, id)");
+        execute(connection, "CREATE INDEX IF NOT EXISTS idx_messages_owner ON messages(record_owner, id)");
+        execute(connection, "CREATE INDEX IF NOT EXISTS idx_messages_time_received ON messages(record_time_received)");
+        execute(connection, "CREATE INDEX IF NOT EXISTS idx_messages_epoch ON messages(epoch)");
+        execute(connection, "ANALYZE messages");
+    }
+
+    // Version 5: change_seq orders inserts and updates for the change feed. Existing rows
+    // are numbered in id order, as if each had been inserted once.
+    private static void addChangeSequence(Connection connection) throws SQLException {
+        execute(connection, "ALTER TABLE messages ADD COLUMN change_seq INTEGER");
+        execute(connection, "UPDATE messages SET change_seq = id");
+        execute(connection, "CREATE UNIQUE INDEX IF NOT EXISTS idx_messages_change_seq ON messages(change_seq)");
+    }
+
+    // Version 6: the equality filters again, ending in change_seq, so a filtered change feed
+    // page is read in change order straight from the index instead of sorting every match
+    private static void indexChangesByFilter(Connection connection) throws SQLException {
+        execute(connection, "CREATE INDEX IF NOT EXISTS idx_messages_target_body_change ON messages(target_body_name, change_seq)");
+        execute(connection, "CREATE INDEX IF NOT EXISTS idx_messages_center_body_change ON messages(center_body_name, change_seq)");
+        execute(connection, "CREATE INDEX IF NOT EXISTS idx_messages_owner_change ON messages(record_owner, change_seq)");
+        execute(connection, "ANALYZE messages");
+    }
+}
@@ -1,43 +1,96 @@
 package com.o3.server;
 
 import com.sun.net.httpserver.*;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import javax.net.ssl.*;
 import java.io.*;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.security.SecureRandom;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 public class Server implements HttpHandler {
 
+    // Upper bound for the limit query parameter of a paginated GET
+    private static final int MAX_PAGE_LIMIT = 10000;
+
+    // Content type of newline-delimited JSON bulk uploads
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    // Number of bulk items validated and committed together
+    private static final int BULK_CHUNK_SIZE = 500;
+
+    // Default limit for a request body, or for each item of a bulk upload
+    static final long DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+
+    // Below this size compression costs more than it saves
+    static final int DEFAULT_COMPRESSION_MIN_BYTES = 1024;
+
+    // Distinguishes ETags of this process from those handed out before a restart, when the
+    // dataset version started over
+    private static final String ETAG_PREFIX = Long.toString(System.currentTimeMillis(), 36);
+
+    private final long maxBodyBytes;
+    private final int compressionMinBytes;
+
+    public Server() {
+        this(DEFAULT_MAX_BODY_BYTES, DEFAULT_COMPRESSION_MIN_BYTES);
+    }
+
+    /**
+     * Responses shorter than compressionMinBytes are sent uncompressed, a negative value
+     * disables response compression
+     */
+    public Server(long maxBodyBytes, int compressionMinBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+        this.compressionMinBytes = compressionMinBytes;
+    }
+
     public static void main(String[] args) {
         try {
             if (args.length < 2) {
-                System.err.println("Usage: Server <keystore-path> <keystore-password>");
+                Log.error("Usage: Server <keystore-path> <keystore-password>");
                 return;
             }
 
             // Initialize database
             String dbPath = System.getenv("DATABASE_PATH");
             if (dbPath == null || dbPath.trim().isEmpty()) {
-                System.err.println("DATABASE_PATH environment variable not set");
+                Log.error("DATABASE_PATH environment variable not set");
                 return;
             }
 
+            // Connection pool sizing, readers default to one per core
+            int readerConnections = ServerConfig.getInt("DB_READ_CONNECTIONS", Runtime.getRuntime().availableProcessors());
+            int busyTimeoutMs = ServerConfig.getInt("DB_BUSY_TIMEOUT_MS", 5000);
+
+            // Group commit: inserts arriving together share one transaction and one fsync
+            int commitBatchSize = ServerConfig.getInt("DB_COMMIT_BATCH_SIZE", 100);
+            long commitDelayMs = ServerConfig.getLong("DB_COMMIT_DELAY_MS", 2);
+
+            // Byte budget for serialized records served by GET
+            long recordCacheBytes = ServerConfig.getLong("RECORD_CACHE_BYTES", 32L * 1024 * 1024);
+            // Records read one by one, kept for single-record GET and PUT
+            int recordCacheEntries = ServerConfig.getInt("RECORD_CACHE_ENTRIES", 10000);
+
             MessageDatabase db = MessageDatabase.getInstance();
             try {
-                db.open(dbPath);
-                System.out.println("Database opened successfully at: " + dbPath);
+                db.open(dbPath, readerConnections, busyTimeoutMs, commitBatchSize, commitDelayMs, recordCacheBytes,
+                        recordCacheEntries);
+                Log.info("Database opened successfully at: {}", dbPath);
             } catch (SQLException e) {
-                System.err.println("Failed to open database: " + e.getMessage());
+                Log.error("Failed to open database: {}", e.getMessage());
                 return;
             }
 
@@ -71,47 +124,185 @@ public class Server implements HttpHandler {
                 }
             });
 
-            // Create authenticator
-            UserAuthenticator authenticator = new UserAuthenticator("datarecord");
+            // Create authenticator, verified credentials are cached to avoid re-hashing on every request
+            CredentialCache credentialCache = new CredentialCache(
+                ServerConfig.getLong("AUTH_CACHE_TTL_SECONDS", 300),
+                ServerConfig.getInt("AUTH_CACHE_MAX_ENTRIES", 10000));
+            UserAuthenticator authenticator = new UserAuthenticator("datarecord", credentialCache);
+
+            // Bearer tokens are signed with TOKEN_SECRET, or with a random per-process key if unset
+            String tokenSecret = ServerConfig.getString("TOKEN_SECRET", null);
+            byte[] tokenKey;
+            if (tokenSecret != null) {
+                tokenKey = tokenSecret.getBytes(StandardCharsets.UTF_8);
+            } else {
+                tokenKey = new byte[32];
+                new SecureRandom().nextBytes(tokenKey);
+            }
+            TokenService tokenService = new TokenService(tokenKey, ServerConfig.getLong("TOKEN_TTL_SECONDS", 3600));
+
+            // Create context for datarecord with authentication, bearer tokens or Basic credentials
+            long maxBodyBytes = ServerConfig.getLong("MAX_BODY_BYTES", DEFAULT_MAX_BODY_BYTES);
+            TokenAuthenticator dataAuthenticator = new TokenAuthenticator("datarecord", tokenService, authenticator);
+            int compressionMinBytes = ServerConfig.getInt("COMPRESSION_MIN_BYTES", DEFAULT_COMPRESSION_MIN_BYTES);
+            HttpContext context = server.createContext("/datarecord", new Server(maxBodyBytes, compressionMinBytes));
+            context.getFilters().add(new MetricsFilter("/datarecord"));
+            // Phase timings for Server-Timing and the slow-request log
+            context.getFilters().add(RequestTimer.filter(ServerConfig.getLong("SLOW_REQUEST_THRESHOLD_MS", 1000),
+                                                         ServerConfig.getInt("SLOW_REQUEST_LOG_EVERY", 1)));
+            context.setAuthenticator(dataAuthenticator);
 
-            // Create context for datarecord with authentication
-            HttpContext context = server.createContext("/datarecord", new Server());
-            context.setAuthenticator(authenticator);
+            // Live Server-Sent Events stream of stored and updated records
+            RecordEventBus eventBus = new RecordEventBus(
+                ServerConfig.getInt("EVENT_STREAM_MAX_SUBSCRIBERS", 256),
+                ServerConfig.getInt("EVENT_STREAM_QUEUE_CAPACITY", 256),
+                ServerConfig.getInt("EVENT_STREAM_WRITER_THREADS", 2),
+                ServerConfig.getLong("EVENT_STREAM_HEARTBEAT_SECONDS", 15),
+                ServerConfig.getLong("EVENT_STREAM_WRITE_TIMEOUT_MS", 10000));
+            db.setEventBus(eventBus);
+            HttpContext streamContext = server.createContext("/datarecord/stream", new EventStreamHandler(eventBus));
+            streamContext.getFilters().add(new MetricsFilter("/datarecord/stream"));
+            streamContext.setAuthenticator(dataAuthenticator);
 
             // Create context for registration without authentication
-            server.createContext("/registration", new RegistrationHandler(authenticator));
+            HttpContext registrationContext = server.createContext("/registration", new RegistrationHandler(authenticator, maxBodyBytes));
+            registrationContext.getFilters().add(new MetricsFilter("/registration"));
+            registrationContext.getFilters().add(AdmissionExecutor.filter());
 
-            // Enable multi-threading with cached thread pool
-            server.setExecutor(Executors.newCachedThreadPool());
+            // Create context for exchanging Basic credentials for a bearer token
+            HttpContext loginContext = server.createContext("/login", new LoginHandler(tokenService));
+            loginContext.getFilters().add(new MetricsFilter("/login"));
+            loginContext.setAuthenticator(authenticator);
+
+            // Prometheus scrape endpoint, unauthenticated like /registration. It has no admission
+            // filter, so a scrape that is not admitted is still answered from the shedding pool.
+            MetricsHandler metricsHandler = new MetricsHandler(Metrics.getInstance());
+            HttpContext metricsContext = server.createContext("/metrics", metricsHandler);
+            metricsContext.getFilters().add(new MetricsFilter("/metrics"));
+            // The same endpoint on its own port and thread, so scrapes never wait behind queued requests
+            HttpServer metricsServer = createMetricsServer(ServerConfig.getInt("METRICS_PORT", 9464), metricsHandler);
+
+            // Bounded worker pool (or virtual threads), requests over the limit get 503 + Retry-After
+            int workerThreads = ServerConfig.getInt("EXECUTOR_THREADS", Math.max(8, 4 * Runtime.getRuntime().availableProcessors()));
+            int retryAfterSeconds = ServerConfig.getInt("EXECUTOR_RETRY_AFTER_SECONDS", 1);
+            AdmissionExecutor executor;
+            if (AdmissionExecutor.MODE_VIRTUAL.equalsIgnoreCase(ServerConfig.getString("EXECUTOR_MODE", AdmissionExecutor.MODE_BOUNDED))) {
+                executor = AdmissionExecutor.virtual(ServerConfig.getInt("EXECUTOR_MAX_CONCURRENCY", 1024),
+                    workerThreads, retryAfterSeconds);
+            } else {
+                executor = AdmissionExecutor.bounded(workerThreads,
+                    ServerConfig.getInt("EXECUTOR_QUEUE_CAPACITY", 256), retryAfterSeconds);
+            }
+            server.setExecutor(executor);
+            Log.info("Using {} executor", executor.getMode());
+            registerMetrics(executor, credentialCache, eventBus);
 
             // Add shutdown hook for controlled database closure
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("Shutting down server...");
+                Log.info("Shutting down server...");
+                // Streams never finish on their own, close them before waiting for exchanges
+                eventBus.shutdown();
+                server.stop(1);
+                if (metricsServer != null) {
+                    metricsServer.stop(0);
+                    ((ExecutorService) metricsServer.getExecutor()).shutdown();
+                }
+                // Handlers still running after stop() may be writing, let them finish before closing the database
+                executor.shutdown();
+                try {
+                    if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                        Log.warn("Request handlers still running after {} s", 5);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
                 try {
                     db.close();
-                    System.out.println("Database closed successfully");
+                    Log.info("Database closed successfully");
                 } catch (SQLException e) {
-                    System.err.println("Error closing database: " + e.getMessage());
+                    Log.error("Error closing database: {}", e.getMessage());
                 }
             }));
 
             server.start();
-            System.out.println("Server started on port 8001");
+            Log.info("Server started on port 8001");
+            if (metricsServer != null) {
+                metricsServer.start();
+                Log.info("Metrics served on port {}", metricsServer.getAddress().getPort());
+            }
 
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.error("Server failed to start", e);
+        }
+    }
+
+    /**
+     * A plain HTTP server for /metrics with a single thread of its own, outside the admission
+     * limit of the main server. Returns null when the port is zero or negative.
+     */
+    private static HttpServer createMetricsServer(int port, MetricsHandler handler) throws IOException {
+        if (port <= 0) {
+            return null;
         }
+        HttpServer metricsServer = HttpServer.create(new InetSocketAddress(port), 0);
+        metricsServer.createContext("/metrics", handler);
+        ExecutorService scrapes = Executors.newSingleThreadExecutor(AdmissionExecutor.namedThreads("metrics"));
+        metricsServer.setExecutor(scrapes);
+        return metricsServer;
+    }
+
+    /**
+     * Exposes the state of the executor, the log, the credential cache and the event stream
+     * on /metrics, next to the request and database metrics recorded as they happen
+     */
+    private static void registerMetrics(AdmissionExecutor executor, CredentialCache credentialCache,
+                                        RecordEventBus eventBus) {
+        Metrics metrics = Metrics.getInstance();
+        metrics.gauge("o3_executor_active_requests", "Requests being handled by the executor", "",
+                      executor::getActiveCount);
+        metrics.gauge("o3_executor_queued_requests", "Requests waiting for a worker", "", executor::getQueueDepth);
+        metrics.counter("o3_executor_rejected_total", "Requests answered with 503 because the server was full", "",
+                        executor::getRejectedCount);
+        metrics.counter("o3_log_dropped_total", "Log messages dropped because the log buffer was full", "",
+                        Log::getDroppedCount);
+        metrics.counter("o3_auth_cache_hits_total", "Credential checks answered from the credential cache", "",
+                        credentialCache::getHitCount);
+        metrics.counter("o3_auth_cache_misses_total", "Credential checks that needed a password hash", "",
+                        credentialCache::getMissCount);
+        metrics.gauge("o3_auth_cache_entries", "Credentials in the credential cache", "", credentialCache::size);
+        metrics.gauge("o3_event_stream_subscribers", "Open /datarecord/stream connections", "",
+                      eventBus::getSubscriberCount);
+        metrics.counter("o3_event_stream_published_total", "Events published to stream subscribers", "",
+                        eventBus::getPublishedCount);
+        metrics.counter("o3_event_stream_dropped_total", "Stream subscribers disconnected for falling behind", "",
+                        eventBus::getDroppedCount);
+        metrics.counter("o3_event_stream_timed_out_total", "Stream subscribers disconnected for a blocked write", "",
+                        eventBus::getTimedOutCount);
     }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        // Log thread ID for verification during testing
-        System.out.println("Request handled in thread " + Thread.currentThread().getId());
+        // The thread name is part of every log line, which is enough to verify concurrency
+        Log.debug("Request handled: {}", exchange.getRequestMethod());
+        // Everything before the handler runs is authentication
+        RequestTimer.of(exchange).phase("auth");
         
-        if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+        String method = exchange.getRequestMethod();
+        boolean head = method.equalsIgnoreCase("HEAD");
+        if (method.equalsIgnoreCase("POST")) {
             handlePost(exchange);
-        } else if (exchange.getRequestMethod().equalsIgnoreCase("GET")) {
-            handleGet(exchange);
+        } else if (method.equalsIgnoreCase("GET") || head) {
+            // A record id in the path or the query selects a single record
+            String path = exchange.getRequestURI().getPath().substring(exchange.getHttpContext().getPath().length());
+            if (!path.isEmpty() && !path.equals("/")) {
+                handleGetRecord(exchange, head);
+            } else if (parseQuery(exchange.getRequestURI().getRawQuery()).containsKey("id")) {
+                handleGetRecord(exchange, head);
+            } else if (head) {
+                sendResponse(exchange, 400, "Not supported");
+            } else {
+                handleGet(exchange);
+            }
         } else if (exchange.getRequestMethod().equalsIgnoreCase("PUT")) {
             handlePut(exchange);
         } else {
@@ -128,432 +319,714 @@ public class Server implements HttpHandler {
 
     private void handlePost(HttpExchange exchange) throws IOException {
         try {
-            // Check Content-Type
+            // Check Content-Type, NDJSON is accepted for bulk uploads
             String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
-            if (contentType == null || !contentType.equals("application/json")) {
+            boolean ndjson = NDJSON_CONTENT_TYPE.equals(contentType);
+            if (contentType == null || (!contentType.equals("application/json") && !ndjson)) {
                 sendResponse(exchange, 400, "Content-Type must be application/json");
                 return;
             }
 
-            // Read request body
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
-            String requestBody = reader.lines().collect(Collectors.joining("\n"));
-            reader.close();
-
-            // Parse JSON
-            JSONObject json = new JSONObject(requestBody);
-
-            // Validate required fields
-            if (!json.has("target_body_name") || !json.has("center_body_name") || !json.has("epoch")) {
-                sendResponse(exchange, 400, "Missing required fields");
-                return;
-            }
-
-            // Check that at least one of orbital_elements or state_vector is present
-            boolean hasOrbitalElements = json.has("orbital_elements");
-            boolean hasStateVector = json.has("state_vector");
-
-            if (!hasOrbitalElements && !hasStateVector) {
-                sendResponse(exchange, 400, "Message must contain orbital_elements and/or state_vector");
+            // Decode straight from the request body bytes, inflating them if compressed
+            InputStream body = HttpCompression.requestBody(exchange);
+            if (body == null) {
+                sendResponse(exchange, 415, "Unsupported Content-Encoding");
                 return;
             }
+            JsonReader reader = new JsonReader(body, maxBodyBytes);
 
-            // Extract data
-            String targetBodyName = json.getString("target_body_name");
-            String centerBodyName = json.getString("center_body_name");
-            String epoch = json.getString("epoch");
-
-            // Validate fields are not empty
-            if (targetBodyName.trim().isEmpty() || centerBodyName.trim().isEmpty() || epoch.trim().isEmpty()) {
-                sendResponse(exchange, 400, "Required fields cannot be empty");
+            // A JSON array or NDJSON body is a bulk upload, the size limit applies per item
+            if (ndjson || reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                handleBulkPost(exchange, reader, ndjson);
                 return;
             }
 
-            JSONObject orbitalElements = hasOrbitalElements ? json.getJSONObject("orbital_elements") : null;
-            JSONObject stateVector = hasStateVector ? json.getJSONObject("state_vector") : null;
+            checkContentLength(exchange);
+            RequestTimer timer = RequestTimer.of(exchange);
+            ObservationRequest request = ObservationRequest.read(reader);
+            reader.endDocument();
+            exchange.getRequestBody().close();
+            timer.phase("parse");
 
-            // Extract record_payload from metadata - it's mandatory
-            String recordPayload = null;
-            if (!json.has("metadata")) {
-                sendResponse(exchange, 400, "Missing required field: metadata");
-                return;
-            }
-            
-            JSONObject metadata = json.getJSONObject("metadata");
-            if (!metadata.has("record_payload")) {
-                sendResponse(exchange, 400, "Missing required field: metadata.record_payload");
-                return;
-            }
-            
-            recordPayload = metadata.getString("record_payload");
-            if (recordPayload.trim().isEmpty()) {
-                sendResponse(exchange, 400, "record_payload cannot be empty");
-                return;
-            }
-            
-            // Get the username from the authenticated principal
-            String username = exchange.getPrincipal().getUsername();
-            
-            // Get the user's nickname from the database
+            // Get the user's nickname, resolved during authentication when possible
             MessageDatabase db = MessageDatabase.getInstance();
-            String userNickname = db.getUserNickname(username);
+            String userNickname = getNickname(exchange);
+            timer.phase("nickname");
             
             if (userNickname == null) {
                 sendResponse(exchange, 500, "User nickname not found");
                 return;
             }
-            
-            // Extract record_owner from metadata - optional, will auto-fill from authenticated user if not provided
-            String recordOwner = null;
-            if (metadata.has("record_owner")) {
-                recordOwner = metadata.getString("record_owner");
-            }
-            
-            // If record_owner is not provided or is empty, auto-fill from authenticated user's nickname
-            if (recordOwner == null || recordOwner.trim().isEmpty()) {
-                recordOwner = userNickname;
-            }
-            
-            // Extract observatory information if present
-            List<Observatory> observatories = new ArrayList<>();
-            if (metadata.has("observatory")) {
-                JSONArray observatoryArray = metadata.getJSONArray("observatory");
-                for (int i = 0; i < observatoryArray.length(); i++) {
-                    JSONObject obsJson = observatoryArray.getJSONObject(i);
-                    
-                    // Validate observatory fields
-                    if (!obsJson.has("latitude") || !obsJson.has("longitude") || !obsJson.has("observatory_name")) {
-                        sendResponse(exchange, 400, "Invalid observatory data: missing required fields");
-                        return;
-                    }
-                    
-                    double latitude = obsJson.getDouble("latitude");
-                    double longitude = obsJson.getDouble("longitude");
-                    String observatoryName = obsJson.getString("observatory_name");
-                    
-                    Observatory obs = new Observatory(latitude, longitude, observatoryName);
-                    
-                    // Check if observatory_weather field is present (can be any type)
-                    if (obsJson.has("observatory_weather")) {
-                        // Fetch weather data using the coordinates
-                        JSONObject weatherData = WeatherFetcher.fetchWeatherData(latitude, longitude);
-                        obs.setWeatherData(
-                            weatherData.getDouble("temperature_in_kelvins"),
-                            weatherData.getDouble("cloudiness_percentage"),
-                            weatherData.getDouble("background_light_volume")
-                        );
-                    }
-                    
-                    observatories.add(obs);
-                }
-            }
-
-            // Validate data types in orbital_elements
-            if (orbitalElements != null && !validateOrbitalElements(orbitalElements)) {
-                sendResponse(exchange, 400, "Invalid data types in orbital_elements");
-                return;
-            }
 
-            // Validate data types in state_vector
-            if (stateVector != null && !validateStateVector(stateVector)) {
-                sendResponse(exchange, 400, "Invalid data types in state_vector");
-                return;
-            }
-            
-            // Validate that record_owner matches the authenticated user's nickname (security check)
-            // This ensures that if a record_owner was explicitly provided, it matches the authenticated user
-            // If record_owner was auto-filled, this validation will pass (but is still necessary for security)
-            if (!recordOwner.equals(userNickname)) {
-                sendResponse(exchange, 403, "record_owner must match authenticated user's nickname");
-                return;
-            }
+            ObservationRecord record = parseObservation(request, userNickname, timer);
+            timer.phase("validate");
 
             // Store the message in the database using the validated record_owner
-            db.addMessage(targetBodyName, centerBodyName, epoch, orbitalElements, stateVector, recordOwner, recordPayload, observatories);
+            db.addMessage(record.getTargetBodyName(), record.getCenterBodyName(), record.getEpoch(),
+                          record.getOrbitalElements(), record.getStateVector(), record.getRecordOwner(),
+                          record.getRecordPayload(), record.getObservatories());
+            timer.phase("insert");
 
             // Send success response with 200 OK status
             exchange.getResponseHeaders().set("Content-Type", "application/json");
+            timer.addServerTiming(exchange);
             exchange.sendResponseHeaders(200, -1);
 
+        } catch (RequestException e) {
+            sendResponse(exchange, e.getStatus(), e.getMessage());
+        } catch (JsonReader.TooLargeException e) {
+            sendResponse(exchange, 413, "Request body too large");
         } catch (JSONException e) {
             sendResponse(exchange, 400, "Invalid JSON format");
         } catch (SQLException e) {
-            System.err.println("Database error: " + e.getMessage());
-            System.err.println("SQL State: " + e.getSQLState());
-            System.err.println("Error Code: " + e.getErrorCode());
-            e.printStackTrace();
+            Log.error("Database error, SQL state {}", e.getSQLState(), e);
             sendResponse(exchange, 500, "Database error");
         }
     }
 
-    private void handleGet(HttpExchange exchange) throws IOException {
+    /**
+     * Rejects a body that announces more than maxBodyBytes before reading any of it
+     */
+    private void checkContentLength(HttpExchange exchange) {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength == null) {
+            return;
+        }
         try {
-            // Get messages from database
-            MessageDatabase db = MessageDatabase.getInstance();
-            List<ObservationRecord> messages = db.getAllMessages();
-            
-            // Check if there are no observations
-            if (messages.isEmpty()) {
-                exchange.sendResponseHeaders(204, -1);
-                return;
+            if (Long.parseLong(contentLength.trim()) > maxBodyBytes) {
+                throw new JsonReader.TooLargeException(maxBodyBytes);
             }
+        } catch (NumberFormatException e) {
+            // The HTTP server has already rejected malformed lengths
+        }
+    }
 
-            // Create JSON array of all observations
-            JSONArray responseArray = new JSONArray();
-            for (ObservationRecord record : messages) {
-                responseArray.put(record.toJSON());
-            }
+    /**
+     * Returns the nickname of the authenticated user. Both authenticators attach it to the
+     * principal; only principals without one (e.g. older tokens) need a database lookup.
+     */
+    private static String getNickname(HttpExchange exchange) throws SQLException {
+        HttpPrincipal principal = exchange.getPrincipal();
+        if (principal instanceof UserPrincipal) {
+            return ((UserPrincipal) principal).getNickname();
+        }
+        return MessageDatabase.getInstance().getUserNickname(principal.getUsername());
+    }
 
-            // Send response
-            String responseString = responseArray.toString();
-            byte[] bytes = responseString.getBytes(StandardCharsets.UTF_8);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.getResponseHeaders().set("Content-Length", String.valueOf(bytes.length));
-            exchange.sendResponseHeaders(200, bytes.length);
-            OutputStream outputStream = exchange.getResponseBody();
-            outputStream.write(bytes);
-            outputStream.flush();
-            outputStream.close();
+    /**
+     * Validates one observation sent by the given user and builds the record to store.
+     * Observatories asking for weather are enriched here.
+     */
+    private ObservationRecord parseObservation(ObservationRequest request, String userNickname, RequestTimer timer)
+            throws RequestException {
+        ObservationRecord record = buildRecord(request, timer);
 
-        } catch (SQLException e) {
-            System.err.println("Database error: " + e.getMessage());
-            sendResponse(exchange, 500, "Database error");
-        } catch (Exception e) {
-            e.printStackTrace(); // Log error for debugging
-            sendResponse(exchange, 500, "Internal server error");
+        // Extract record_owner from metadata - optional, will auto-fill from authenticated user if not provided
+        String recordOwner = request.getRecordOwner();
+        
+        // If record_owner is not provided or is empty, auto-fill from authenticated user's nickname
+        if (recordOwner == null || recordOwner.trim().isEmpty()) {
+            recordOwner = userNickname;
+        }
+        
+        // Validate that record_owner matches the authenticated user's nickname (security check)
+        // This ensures that if a record_owner was explicitly provided, it matches the authenticated user
+        // If record_owner was auto-filled, this validation will pass (but is still necessary for security)
+        if (!recordOwner.equals(userNickname)) {
+            throw new RequestException(403, "record_owner must match authenticated user's nickname");
         }
-    }
 
-    private void sendResponse(HttpExchange exchange, int code, String message) throws IOException {
-        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
-        exchange.sendResponseHeaders(code, bytes.length);
-        OutputStream outputStream = exchange.getResponseBody();
-        outputStream.write(bytes);
-        outputStream.flush();
-        outputStream.close();
+        record.setMetadata(-1, null, recordOwner);
+        return record;
     }
 
     /**
-     * Validates that orbital_elements contains numeric values for all expected fields
+     * Checks the fields shared by POST and PUT bodies and builds the record without owner
+     * metadata. Observatories asking for weather are enriched here.
      */
-    private boolean validateOrbitalElements(JSONObject orbitalElements) {
-        try {
-            // Expected numeric fields in orbital_elements - all are required
-            String[] numericFields = {
-                "semi_major_axis_au",
-                "eccentricity",
-                "inclination_deg",
-                "longitude_ascending_node_deg",
-                "argument_of_periapsis_deg",
-                "mean_anomaly_deg"
-            };
-
-            for (String field : numericFields) {
-                // All fields must be present
-                if (!orbitalElements.has(field)) {
-                    return false;
-                }
-                Object value = orbitalElements.get(field);
-                // Check if value is null
-                if (value == null || value == JSONObject.NULL) {
-                    return false;
+    private ObservationRecord buildRecord(ObservationRequest request, RequestTimer timer) throws RequestException {
+        // A known field holding e.g. a number instead of a string
+        if (request.hasInvalidType()) {
+            throw new RequestException(400, "Invalid JSON format");
+        }
+
+        // Validate required fields
+        String targetBodyName = request.getTargetBodyName();
+        String centerBodyName = request.getCenterBodyName();
+        String epoch = request.getEpoch();
+        if (targetBodyName == null || centerBodyName == null || epoch == null) {
+            throw new RequestException(400, "Missing required fields");
+        }
+
+        // Check that at least one of orbital_elements or state_vector is present
+        if (!request.hasOrbitalElements() && !request.hasStateVector()) {
+            throw new RequestException(400, "Message must contain orbital_elements and/or state_vector");
+        }
+
+        // Validate fields are not empty
+        if (targetBodyName.trim().isEmpty() || centerBodyName.trim().isEmpty() || epoch.trim().isEmpty()) {
+            throw new RequestException(400, "Required fields cannot be empty");
+        }
+
+        // Extract record_payload from metadata - it's mandatory
+        if (!request.hasMetadata()) {
+            throw new RequestException(400, "Missing required field: metadata");
+        }
+        
+        String recordPayload = request.getRecordPayload();
+        if (recordPayload == null) {
+            throw new RequestException(400, "Missing required field: metadata.record_payload");
+        }
+        if (recordPayload.trim().isEmpty()) {
+            throw new RequestException(400, "record_payload cannot be empty");
+        }
+        
+        // Extract observatory information if present
+        List<Observatory> observatories = new ArrayList<>();
+        if (request.getObservatories() != null) {
+            for (ObservationRequest.ObservatoryInput input : request.getObservatories()) {
+                // Validate observatory fields
+                if (!input.isComplete()) {
+                    throw new RequestException(400, "Invalid observatory data: missing required fields");
                 }
-                // Check if value is a number (not a string or other type)
-                if (!(value instanceof Number)) {
-                    return false;
+                
+                double latitude = input.getLatitude();
+                double longitude = input.getLongitude();
+                Observatory obs = new Observatory(latitude, longitude, input.getObservatoryName());
+                
+                // Check if observatory_weather field is present (can be any type)
+                if (input.isWeatherRequested()) {
+                    // Fetch weather data using the coordinates
+                    timer.phase("validate");
+                    JSONObject weatherData = WeatherFetcher.fetchWeatherData(latitude, longitude);
+                    timer.phase("weather");
+                    obs.setWeatherData(
+                        weatherData.getDouble("temperature_in_kelvins"),
+                        weatherData.getDouble("cloudiness_percentage"),
+                        weatherData.getDouble("background_light_volume")
+                    );
                 }
+                
+                observatories.add(obs);
             }
-            return true;
-        } catch (Exception e) {
-            return false;
         }
+
+        // Orbital data that was present but did not decode had missing or non-numeric fields
+        if (request.hasOrbitalElements() && request.getOrbitalElements() == null) {
+            throw new RequestException(400, "Invalid data types in orbital_elements");
+        }
+        if (request.hasStateVector() && request.getStateVector() == null) {
+            throw new RequestException(400, "Invalid data types in state_vector");
+        }
+
+        ObservationRecord record = new ObservationRecord(
+            targetBodyName, centerBodyName, epoch, request.getOrbitalElements(), request.getStateVector());
+        record.setRecordPayload(recordPayload);
+        record.setObservatories(observatories);
+        return record;
     }
 
     /**
-     * Validates that state_vector contains arrays of numbers for position and velocity
+     * Ingests a JSON array or newline-delimited JSON of observations. Items are parsed one
+     * at a time and stored in transactions of BULK_CHUNK_SIZE records; the response is a
+     * JSON array with one status object per item, streamed as chunks are committed.
      */
-    private boolean validateStateVector(JSONObject stateVector) {
+    private void handleBulkPost(HttpExchange exchange, JsonReader reader, boolean ndjson)
+            throws IOException, SQLException {
+        MessageDatabase db = MessageDatabase.getInstance();
+        String userNickname = getNickname(exchange);
+        
+        if (userNickname == null) {
+            sendResponse(exchange, 500, "User nickname not found");
+            return;
+        }
+
+        if (ndjson) {
+            reader.setLineDelimited(true);
+        } else {
+            reader.beginArray();
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        RequestTimer timer = RequestTimer.of(exchange);
+        timer.addServerTiming(exchange);
+        BulkResultWriter results = new BulkResultWriter(new HttpCompression.ResponseStream(
+            exchange, 200, HttpCompression.negotiate(exchange), compressionMinBytes), db);
+
         try {
-            // Both position_au and velocity_au_per_day are required
-            if (!stateVector.has("position_au") || !stateVector.has("velocity_au_per_day")) {
-                return false;
-            }
+            int index = 0;
+            while (true) {
+                ObservationRequest item = null;
+                reader.resetLimit();
+                try {
+                    if (ndjson) {
+                        reader.beginDocument();
+                        if (reader.peek() == JsonReader.Token.END_DOCUMENT) {
+                            break;
+                        }
+                    } else if (!reader.hasNext()) {
+                        reader.endArray();
+                        break;
+                    }
+                    if (reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                        item = ObservationRequest.read(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                } catch (JSONException e) {
+                    boolean tooLarge = e instanceof JsonReader.TooLargeException;
+                    results.addFailure(index, tooLarge ? 413 : 400,
+                                       tooLarge ? "Request body too large" : "Invalid JSON format");
+                    index++;
+                    if (ndjson) {
+                        reader.skipLine();
+                        continue;
+                    }
+                    // A broken array cannot be resynchronized, stop at this item
+                    break;
+                }
 
-            // Validate position_au is an array of numbers
-            JSONArray positionAu = stateVector.getJSONArray("position_au");
-            if (positionAu == null || positionAu.length() == 0) {
-                return false;
-            }
-            for (int i = 0; i < positionAu.length(); i++) {
-                Object value = positionAu.get(i);
-                if (value == null || value == JSONObject.NULL || !(value instanceof Number)) {
-                    return false;
+                if (item == null) {
+                    results.addFailure(index, 400, "Invalid JSON format");
+                } else {
+                    try {
+                        results.add(index, parseObservation(item, userNickname, timer));
+                    } catch (RequestException e) {
+                        results.addFailure(index, e.getStatus(), e.getMessage());
+                    } catch (JSONException e) {
+                        results.addFailure(index, 400, "Invalid JSON format");
+                    }
                 }
+                index++;
             }
+        } finally {
+            results.finish();
+            exchange.getRequestBody().close();
+        }
+    }
+
+    /**
+     * Collects validated bulk items and writes their statuses in item order. Pending
+     * records are stored with one MessageDatabase.addMessages call per BULK_CHUNK_SIZE items.
+     */
+    private static class BulkResultWriter {
+        private final OutputStream outputStream;
+        private final MessageDatabase db;
+        private final List<Integer> indexes;
+        private final List<ObservationRecord> records;
+        private final List<JSONObject> statuses;
+        private boolean first;
+
+        BulkResultWriter(OutputStream outputStream, MessageDatabase db) throws IOException {
+            this.outputStream = outputStream;
+            this.db = db;
+            this.indexes = new ArrayList<>();
+            this.records = new ArrayList<>();
+            this.statuses = new ArrayList<>();
+            this.first = true;
+            outputStream.write('[');
+        }
+
+        void add(int index, ObservationRecord record) throws IOException {
+            JSONObject status = new JSONObject();
+            status.put("index", index);
+            statuses.add(status);
+            indexes.add(statuses.size() - 1);
+            records.add(record);
+            flushIfFull();
+        }
 
-            // Validate velocity_au_per_day is an array of numbers
-            JSONArray velocityAuPerDay = stateVector.getJSONArray("velocity_au_per_day");
-            if (velocityAuPerDay == null || velocityAuPerDay.length() == 0) {
-                return false;
+        void addFailure(int index, int code, String error) throws IOException {
+            JSONObject status = new JSONObject();
+            status.put("index", index);
+            status.put("status", code);
+            status.put("error", error);
+            statuses.add(status);
+            flushIfFull();
+        }
+
+        private void flushIfFull() throws IOException {
+            if (statuses.size() >= BULK_CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            if (!records.isEmpty()) {
+                try {
+                    int[] ids = db.addMessages(records);
+                    for (int i = 0; i < ids.length; i++) {
+                        JSONObject status = statuses.get(indexes.get(i));
+                        status.put("status", 200);
+                        status.put("id", ids[i]);
+                    }
+                } catch (SQLException e) {
+                    Log.error("Database error in bulk insert: {}", e.getMessage());
+                    for (Integer position : indexes) {
+                        JSONObject status = statuses.get(position);
+                        status.put("status", 500);
+                        status.put("error", "Database error");
+                    }
+                }
             }
-            for (int i = 0; i < velocityAuPerDay.length(); i++) {
-                Object value = velocityAuPerDay.get(i);
-                if (value == null || value == JSONObject.NULL || !(value instanceof Number)) {
-                    return false;
+            for (JSONObject status : statuses) {
+                if (!first) {
+                    outputStream.write(',');
                 }
+                outputStream.write(status.toString().getBytes(StandardCharsets.UTF_8));
+                first = false;
             }
+            outputStream.flush();
+            indexes.clear();
+            records.clear();
+            statuses.clear();
+        }
 
-            return true;
-        } catch (Exception e) {
-            return false;
+        void finish() throws IOException {
+            flush();
+            outputStream.write(']');
+            outputStream.flush();
+            outputStream.close();
         }
     }
 
-    private void handlePut(HttpExchange exchange) throws IOException {
+    /**
+     * A request that cannot be processed, carrying the HTTP status to answer with
+     */
+    private static class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+
+    private void handleGet(HttpExchange exchange) throws IOException {
+        RecordStreamWriter writer = null;
         try {
-            // Parse query parameters to get the id
-            String query = exchange.getRequestURI().getQuery();
-            if (query == null || !query.contains("id=")) {
-                sendResponse(exchange, 400, "Missing id parameter");
-                return;
-            }
-            
-            int recordId;
+            // Parse keyset pagination and filter parameters
+            RequestTimer timer = RequestTimer.of(exchange);
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            RecordQuery query;
             try {
-                String idStr = query.substring(query.indexOf("id=") + 3);
-                // Handle if there are multiple query parameters
-                if (idStr.contains("&")) {
-                    idStr = idStr.substring(0, idStr.indexOf("&"));
-                }
-                recordId = Integer.parseInt(idStr);
-            } catch (NumberFormatException e) {
-                sendResponse(exchange, 400, "Invalid id parameter");
+                query = RecordQuery.fromParameters(params, MAX_PAGE_LIMIT);
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, e.getMessage());
                 return;
             }
-            
-            // Check Content-Type
-            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
-            if (contentType == null || !contentType.equals("application/json")) {
-                sendResponse(exchange, 400, "Content-Type must be application/json");
+            timer.phase("parse");
+
+            // The version is read before querying, so a write racing with the query only
+            // makes the next poll fetch again
+            MessageDatabase db = MessageDatabase.getInstance();
+            long version = db.getDatasetVersion();
+            String encoding = HttpCompression.negotiate(exchange);
+            // ResponseStream appends the encoding to the tag if it compresses the body
+            exchange.getResponseHeaders().set("ETag", datasetETag(version, null));
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            String matched = matchingDatasetETag(exchange, version, encoding);
+            if (matched != null) {
+                exchange.getResponseHeaders().set("ETag", matched);
+                timer.addServerTiming(exchange);
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
                 return;
             }
-            
-            // Read request body
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
-            String requestBody = reader.lines().collect(Collectors.joining("\n"));
-            reader.close();
-            
-            // Parse JSON
-            JSONObject json = new JSONObject(requestBody);
-            
-            // Validate required fields
-            if (!json.has("target_body_name") || !json.has("center_body_name") || !json.has("epoch")) {
-                sendResponse(exchange, 400, "Missing required fields");
-                return;
+
+            // A change feed page ends at a fixed cursor, which the client sends back as since
+            if (query.isChangeFeed()) {
+                long cursor = db.resolveChangeCursor(query);
+                exchange.getResponseHeaders().set("X-Change-Cursor", Long.toString(cursor));
+                timer.phase("cursor");
             }
-            
-            // Check that at least one of orbital_elements or state_vector is present
-            boolean hasOrbitalElements = json.has("orbital_elements");
-            boolean hasStateVector = json.has("state_vector");
-            
-            if (!hasOrbitalElements && !hasStateVector) {
-                sendResponse(exchange, 400, "Message must contain orbital_elements and/or state_vector");
+
+            // Stream records straight from the result set to the response body
+            writer = new RecordStreamWriter(exchange, encoding, compressionMinBytes, timer);
+            db.streamMessages(query, writer);
+            writer.finish();
+
+        } catch (SQLException e) {
+            Log.error("Database error: {}", e.getMessage());
+            if (writer == null || !writer.isStarted()) {
+                sendResponse(exchange, 500, "Database error");
+            } else {
+                // Headers are already sent, so the only way to signal failure is to cut the stream
+                exchange.close();
+            }
+        } catch (Exception e) {
+            Log.error("Error streaming records", e);
+            if (writer == null || !writer.isStarted()) {
+                sendResponse(exchange, 500, "Internal server error");
+            } else {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Writes records as a JSON array, compressed with the negotiated encoding and using chunked
+     * transfer encoding unless the result is small. The response is started lazily with the
+     * first record so that an empty result can still answer 204.
+     */
+    private static class RecordStreamWriter implements MessageDatabase.JsonVisitor {
+        private final HttpExchange exchange;
+        private final String encoding;
+        private final int compressionMinBytes;
+        private final RequestTimer timer;
+        private OutputStream outputStream;
+        private boolean started;
+
+        RecordStreamWriter(HttpExchange exchange, String encoding, int compressionMinBytes, RequestTimer timer) {
+            this.exchange = exchange;
+            this.encoding = encoding;
+            this.compressionMinBytes = compressionMinBytes;
+            this.timer = timer;
+            this.started = false;
+        }
+
+        @Override
+        public void visit(byte[] json) throws IOException {
+            if (!started) {
+                // Time to the first record; reading the rest overlaps with writing the response
+                timer.phase("query");
+                timer.addServerTiming(exchange);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                outputStream = new HttpCompression.ResponseStream(exchange, 200, encoding, compressionMinBytes);
+                outputStream.write('[');
+                started = true;
+            } else {
+                outputStream.write(',');
+            }
+            outputStream.write(json);
+        }
+
+        /**
+         * True once response headers may have been sent, so an error can no longer be reported
+         */
+        boolean isStarted() {
+            return started;
+        }
+
+        void finish() throws IOException {
+            if (!started) {
+                timer.phase("query");
+                timer.addServerTiming(exchange);
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
                 return;
             }
-            
-            // Extract data
-            String targetBodyName = json.getString("target_body_name");
-            String centerBodyName = json.getString("center_body_name");
-            String epoch = json.getString("epoch");
-            
-            // Validate fields are not empty
-            if (targetBodyName.trim().isEmpty() || centerBodyName.trim().isEmpty() || epoch.trim().isEmpty()) {
-                sendResponse(exchange, 400, "Required fields cannot be empty");
+            outputStream.write(']');
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Tags the dataset version as sent in the given content encoding, null for an
+     * uncompressed body, as the compressed and uncompressed bytes are different representations
+     */
+    private static String datasetETag(long version, String encoding) {
+        return "\"" + ETAG_PREFIX + "-" + version + (encoding != null ? "-" + encoding : "") + "\"";
+    }
+
+    /**
+     * Returns the dataset tag in If-None-Match, for the uncompressed body or the negotiated
+     * encoding, or null if neither matches. A body below the compression threshold is sent
+     * uncompressed under the plain tag even when the client accepts compression.
+     */
+    private static String matchingDatasetETag(HttpExchange exchange, long version, String encoding) {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String plain = datasetETag(version, null);
+        if (matchesETag(ifNoneMatch, plain)) {
+            return plain;
+        }
+        if (encoding != null) {
+            String encoded = datasetETag(version, encoding);
+            if (matchesETag(ifNoneMatch, encoded)) {
+                return encoded;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the record id from the path (/datarecord/{id}) or from the id query parameter
+     */
+    private static int parseRecordId(HttpExchange exchange) throws RequestException {
+        String path = exchange.getRequestURI().getPath().substring(exchange.getHttpContext().getPath().length());
+        String id;
+        if (!path.isEmpty() && !path.equals("/")) {
+            id = path.substring(1);
+            if (!path.startsWith("/") || id.contains("/")) {
+                throw new RequestException(404, "Not found");
+            }
+        } else {
+            id = parseQuery(exchange.getRequestURI().getRawQuery()).get("id");
+            if (id == null) {
+                throw new RequestException(400, "Missing id parameter");
+            }
+        }
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Invalid id parameter");
+        }
+    }
+
+    /**
+     * GET or HEAD of one record. Records are served from the record cache when possible and
+     * carry the dataset ETag, so an unchanged record is answered with 304 without a lookup.
+     */
+    private void handleGetRecord(HttpExchange exchange, boolean head) throws IOException {
+        try {
+            int recordId = parseRecordId(exchange);
+
+            MessageDatabase db = MessageDatabase.getInstance();
+            long version = db.getDatasetVersion();
+            String encoding = HttpCompression.negotiate(exchange);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            RequestTimer timer = RequestTimer.of(exchange);
+            String matched = matchingDatasetETag(exchange, version, encoding);
+            if (matched != null) {
+                exchange.getResponseHeaders().set("ETag", matched);
+                timer.addServerTiming(exchange);
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
                 return;
             }
-            
-            JSONObject orbitalElements = hasOrbitalElements ? json.getJSONObject("orbital_elements") : null;
-            JSONObject stateVector = hasStateVector ? json.getJSONObject("state_vector") : null;
-            
-            // Extract metadata - record_payload is mandatory
-            if (!json.has("metadata")) {
-                sendResponse(exchange, 400, "Missing required field: metadata");
+
+            ObservationRecord record = db.getMessageById(recordId);
+            timer.phase("lookup");
+            if (record == null) {
+                sendResponse(exchange, 404, "Message not found");
                 return;
             }
-            
-            JSONObject metadata = json.getJSONObject("metadata");
-            String recordPayload = null;
-            if (metadata.has("record_payload")) {
-                recordPayload = metadata.getString("record_payload");
-                if (recordPayload.trim().isEmpty()) {
-                    sendResponse(exchange, 400, "record_payload cannot be empty");
-                    return;
-                }
+
+            // A single record is small, so it is compressed in memory and sent with a length
+            byte[] bytes = record.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+            if (encoding != null && compressionMinBytes >= 0 && bytes.length >= compressionMinBytes) {
+                bytes = HttpCompression.encode(bytes, encoding);
+                exchange.getResponseHeaders().set("Content-Encoding", encoding);
+                exchange.getResponseHeaders().set("ETag", datasetETag(version, encoding));
             } else {
-                sendResponse(exchange, 400, "Missing required field: metadata.record_payload");
+                exchange.getResponseHeaders().set("ETag", datasetETag(version, null));
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            timer.phase("serialize");
+            timer.addServerTiming(exchange);
+            if (head) {
+                // HEAD answers with the headers of GET; the length must be set by hand
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(bytes.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
                 return;
             }
-            
-            // Extract update_reason (optional)
-            String updateReason = null;
-            if (metadata.has("update_reason")) {
-                updateReason = metadata.getString("update_reason");
+            exchange.sendResponseHeaders(200, bytes.length);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(bytes);
+            outputStream.close();
+
+        } catch (RequestException e) {
+            sendResponse(exchange, e.getStatus(), e.getMessage());
+        } catch (SQLException e) {
+            Log.error("Database error: {}", e.getMessage());
+            sendResponse(exchange, 500, "Database error");
+        }
+    }
+
+    /**
+     * Evaluates an If-None-Match header, a list of entity tags or "*", against the current tag.
+     * Weak tags match as well, as If-None-Match uses weak comparison.
+     */
+    private static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
             }
-            
-            // Extract observatory information if present
-            List<Observatory> observatories = new ArrayList<>();
-            if (metadata.has("observatory")) {
-                JSONArray observatoryArray = metadata.getJSONArray("observatory");
-                for (int i = 0; i < observatoryArray.length(); i++) {
-                    JSONObject obsJson = observatoryArray.getJSONObject(i);
-                    
-                    // Validate observatory fields
-                    if (!obsJson.has("latitude") || !obsJson.has("longitude") || !obsJson.has("observatory_name")) {
-                        sendResponse(exchange, 400, "Invalid observatory data: missing required fields");
-                        return;
-                    }
-                    
-                    double latitude = obsJson.getDouble("latitude");
-                    double longitude = obsJson.getDouble("longitude");
-                    String observatoryName = obsJson.getString("observatory_name");
-                    
-                    Observatory obs = new Observatory(latitude, longitude, observatoryName);
-                    
-                    // Check if observatory_weather field is present (can be any type)
-                    if (obsJson.has("observatory_weather")) {
-                        // Fetch weather data using the coordinates
-                        JSONObject weatherData = WeatherFetcher.fetchWeatherData(latitude, longitude);
-                        obs.setWeatherData(
-                            weatherData.getDouble("temperature_in_kelvins"),
-                            weatherData.getDouble("cloudiness_percentage"),
-                            weatherData.getDouble("background_light_volume")
-                        );
-                    }
-                    
-                    observatories.add(obs);
-                }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    /**
+     * Splits a raw query string into decoded key/value pairs. Later duplicates are ignored.
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq >= 0 ? pair.substring(0, eq) : pair;
+            String value = eq >= 0 ? pair.substring(eq + 1) : "";
+            params.putIfAbsent(URLDecoder.decode(key, StandardCharsets.UTF_8),
+                               URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private void sendResponse(HttpExchange exchange, int code, String message) throws IOException {
+        RequestTimer.of(exchange).addServerTiming(exchange);
+        if (exchange.getRequestMethod().equalsIgnoreCase("HEAD")) {
+            exchange.sendResponseHeaders(code, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(bytes);
+        outputStream.flush();
+        outputStream.close();
+    }
+
+    private void handlePut(HttpExchange exchange) throws IOException {
+        try {
+            int recordId = parseRecordId(exchange);
             
-            // Validate data types in orbital_elements
-            if (orbitalElements != null && !validateOrbitalElements(orbitalElements)) {
-                sendResponse(exchange, 400, "Invalid data types in orbital_elements");
+            // Check Content-Type
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (contentType == null || !contentType.equals("application/json")) {
+                sendResponse(exchange, 400, "Content-Type must be application/json");
                 return;
             }
             
-            // Validate data types in state_vector
-            if (stateVector != null && !validateStateVector(stateVector)) {
-                sendResponse(exchange, 400, "Invalid data types in state_vector");
+            // Decode straight from the request body bytes
+            checkContentLength(exchange);
+            InputStream body = HttpCompression.requestBody(exchange);
+            if (body == null) {
+                sendResponse(exchange, 415, "Unsupported Content-Encoding");
                 return;
             }
+            RequestTimer timer = RequestTimer.of(exchange);
+            JsonReader reader = new JsonReader(body, maxBodyBytes);
+            ObservationRequest request = ObservationRequest.read(reader);
+            reader.endDocument();
+            exchange.getRequestBody().close();
+            timer.phase("parse");
+
+            // Same validation as POST; update_reason is optional
+            ObservationRecord record = buildRecord(request, timer);
+            String updateReason = request.getUpdateReason();
+            timer.phase("validate");
             
-            // Get the username from the authenticated principal
-            String username = exchange.getPrincipal().getUsername();
-            
-            // Get the nickname from the database
+            // Get the user's nickname, resolved during authentication when possible
             MessageDatabase db = MessageDatabase.getInstance();
-            String nickname = db.getUserNickname(username);
+            String nickname = getNickname(exchange);
+            timer.phase("nickname");
             
             if (nickname == null) {
                 sendResponse(exchange, 500, "User nickname not found");
@@ -562,6 +1035,7 @@ public class Server implements HttpHandler {
             
             // Check if the message exists and verify ownership
             ObservationRecord existingRecord = db.getMessageById(recordId);
+            timer.phase("lookup");
             if (existingRecord == null) {
                 sendResponse(exchange, 404, "Message not found");
                 return;
@@ -573,9 +1047,11 @@ public class Server implements HttpHandler {
             }
             
             // Update the message in the database
-            boolean success = db.updateMessage(recordId, targetBodyName, centerBodyName, epoch, 
-                                              orbitalElements, stateVector, recordPayload, 
-                                              observatories, updateReason);
+            boolean success = db.updateMessage(recordId, record.getTargetBodyName(), record.getCenterBodyName(),
+                                              record.getEpoch(), record.getOrbitalElements(),
+                                              record.getStateVector(), record.getRecordPayload(),
+                                              record.getObservatories(), updateReason);
+            timer.phase("update");
             
             if (!success) {
                 sendResponse(exchange, 500, "Failed to update message");
@@ -584,22 +1060,27 @@ public class Server implements HttpHandler {
             
             // Retrieve the updated record
             ObservationRecord updatedRecord = db.getMessageById(recordId);
+            timer.phase("reload");
             
             // Send response with the updated record
             String responseString = updatedRecord.toJSON().toString();
             byte[] bytes = responseString.getBytes(StandardCharsets.UTF_8);
             exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.getResponseHeaders().set("Content-Length", String.valueOf(bytes.length));
-            exchange.sendResponseHeaders(200, bytes.length);
-            OutputStream outputStream = exchange.getResponseBody();
+            timer.phase("serialize");
+            timer.addServerTiming(exchange);
+            OutputStream outputStream = new HttpCompression.ResponseStream(
+                exchange, 200, HttpCompression.negotiate(exchange), compressionMinBytes);
             outputStream.write(bytes);
-            outputStream.flush();
             outputStream.close();
             
+        } catch (RequestException e) {
+            sendResponse(exchange, e.getStatus(), e.getMessage());
+        } catch (JsonReader.TooLargeException e) {
+            sendResponse(exchange, 413, "Request body too large");
         } catch (JSONException e) {
             sendResponse(exchange, 400, "Invalid JSON format");
         } catch (SQLException e) {
-            System.err.println("Database error: " + e.getMessage());
+            Log.error("Database error: {}", e.getMessage());
             sendResponse(exchange, 500, "Database error");
         }
     }
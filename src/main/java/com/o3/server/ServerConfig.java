@@ -0,0 +1,45 @@
+package com.o3.server;
+
+/**
+ * Reads optional tuning settings from environment variables, falling back to
+ * defaults when a variable is missing or malformed.
+ */
+public final class ServerConfig {
+
+    private ServerConfig() {
+    }
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.warn("Ignoring invalid value for {}: {}", name, value);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            Log.warn("Ignoring invalid value for {}: {}", name, value);
+            return defaultValue;
+        }
+    }
+}
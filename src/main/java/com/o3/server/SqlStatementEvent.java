@@ -0,0 +1,48 @@
+package com.o3.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one statement run by MessageDatabase, from execution until its
+ * result rows have been read. Costs one allocation and an enabled check when no recording
+ * includes it.
+ */
+@Name("com.o3.server.SqlStatement")
+@Label("SQL Statement")
+@Category({"O3 Server", "Database"})
+@Description("A statement executed by MessageDatabase, including reading its result")
+public class SqlStatementEvent extends Event {
+    @Label("SQL")
+    @Description("Statement template with ? placeholders")
+    String sql;
+
+    @Label("Rows")
+    @Description("Rows read for a query, rows changed for an update")
+    long rows;
+
+    /**
+     * Starts timing a statement
+     */
+    static SqlStatementEvent start(String sql) {
+        SqlStatementEvent event = new SqlStatementEvent();
+        if (event.isEnabled()) {
+            event.sql = sql;
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Ends the statement and records it if it passes the recording's threshold
+     */
+    void finish(long rows) {
+        if (isEnabled()) {
+            this.rows = rows;
+            commit();
+        }
+    }
+}
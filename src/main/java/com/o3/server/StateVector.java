@@ -0,0 +1,165 @@
+package com.o3.server;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Position and velocity of an observation, held as primitive double arrays. In the
+ * database each array is a BLOB of packed little-endian doubles.
+ */
+public final class StateVector {
+    private final double[] positionAu;
+    private final double[] velocityAuPerDay;
+
+    public StateVector(double[] positionAu, double[] velocityAuPerDay) {
+        this.positionAu = positionAu;
+        this.velocityAuPerDay = velocityAuPerDay;
+    }
+
+    /**
+     * Reads a state_vector object. Returns null unless position_au and velocity_au_per_day
+     * are both non-empty arrays of numbers; the whole object is consumed either way.
+     */
+    public static StateVector read(JsonReader reader) throws IOException {
+        double[] position = null;
+        double[] velocity = null;
+        boolean valid = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "position_au":
+                    position = readNumbers(reader);
+                    valid &= position != null;
+                    break;
+                case "velocity_au_per_day":
+                    velocity = readNumbers(reader);
+                    valid &= velocity != null;
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        if (!valid || position == null || velocity == null) {
+            return null;
+        }
+        return new StateVector(position, velocity);
+    }
+
+    /**
+     * Reads a non-empty array of numbers, or skips the value and returns null
+     */
+    private static double[] readNumbers(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonReader.Token.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        double[] values = new double[3];
+        int count = 0;
+        boolean valid = true;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonReader.Token.NUMBER) {
+                reader.skipValue();
+                valid = false;
+                continue;
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = reader.nextDouble();
+        }
+        reader.endArray();
+        if (!valid || count == 0) {
+            return null;
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    /**
+     * Decodes the JSON text stored by schema versions before 3
+     */
+    public static StateVector fromJsonText(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return read(new JsonReader(new ByteArrayInputStream(bytes), bytes.length));
+    }
+
+    /**
+     * Reads the position_au and velocity_au_per_day columns of the current row, null if
+     * the message has no state vector
+     */
+    public static StateVector fromResultSet(ResultSet resultSet) throws SQLException {
+        byte[] position = resultSet.getBytes("position_au");
+        byte[] velocity = resultSet.getBytes("velocity_au_per_day");
+        if (position == null || velocity == null) {
+            return null;
+        }
+        return new StateVector(unpack(position), unpack(velocity));
+    }
+
+    /**
+     * Binds position_au and velocity_au_per_day at parameter indexes first and first + 1,
+     * NULLs if vector is null
+     */
+    public static void bind(PreparedStatement statement, int first, StateVector vector) throws SQLException {
+        if (vector == null) {
+            statement.setNull(first, Types.BLOB);
+            statement.setNull(first + 1, Types.BLOB);
+            return;
+        }
+        statement.setBytes(first, pack(vector.positionAu));
+        statement.setBytes(first + 1, pack(vector.velocityAuPerDay));
+    }
+
+    static byte[] pack(double[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double value : values) {
+            buffer.putDouble(value);
+        }
+        return buffer.array();
+    }
+
+    static double[] unpack(byte[] packed) {
+        ByteBuffer buffer = ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN);
+        double[] values = new double[packed.length / Double.BYTES];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getDouble();
+        }
+        return values;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("position_au", toJSONArray(positionAu));
+        json.put("velocity_au_per_day", toJSONArray(velocityAuPerDay));
+        return json;
+    }
+
+    private static JSONArray toJSONArray(double[] values) {
+        JSONArray array = new JSONArray();
+        for (double value : values) {
+            array.put(value);
+        }
+        return array;
+    }
+
+    public double[] getPositionAu() {
+        return positionAu;
+    }
+
+    public double[] getVelocityAuPerDay() {
+        return velocityAuPerDay;
+    }
+}
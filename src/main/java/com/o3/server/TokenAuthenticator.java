@@ -0,0 +1,50 @@
+package com.o3.server;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.time.Instant;
+
+/**
+ * Accepts "Authorization: Bearer" tokens issued by the login endpoint and checks them
+ * against their signature only. Requests without a bearer token are passed on to the
+ * fallback authenticator, so Basic auth keeps working.
+ */
+public class TokenAuthenticator extends Authenticator {
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final String realm;
+    private final TokenService tokenService;
+    private final Authenticator fallback;
+
+    public TokenAuthenticator(String realm, TokenService tokenService, Authenticator fallback) {
+        this.realm = realm;
+        this.tokenService = tokenService;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Result authenticate(HttpExchange exchange) {
+        if (AdmissionExecutor.isShedding()) {
+            return AdmissionExecutor.rejectAuthentication(exchange);
+        }
+
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+            return fallback.authenticate(exchange);
+        }
+
+        String token = authorization.substring(BEARER_PREFIX.length()).trim();
+        TokenService.Claims claims = tokenService.verify(token, Instant.now().getEpochSecond());
+        if (claims == null) {
+            exchange.getResponseHeaders().set("WWW-Authenticate",
+                "Bearer realm=\"" + realm + "\", error=\"invalid_token\"");
+            return new Retry(401);
+        }
+        if (claims.getNickname() == null) {
+            return new Success(new HttpPrincipal(claims.getUsername(), realm));
+        }
+        return new Success(new UserPrincipal(claims.getUsername(), realm, claims.getNickname()));
+    }
+}
@@ -0,0 +1,112 @@
+package com.o3.server;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * Issues and verifies signed bearer tokens. A token is the base64url encoded JSON claims
+ * ({"sub": username, "nick": nickname, "exp": epoch seconds}) followed by a dot and the
+ * base64url encoded HMAC-SHA256 of that first part. Verification needs only the secret,
+ * no database access.
+ */
+public class TokenService {
+
+    /**
+     * The verified contents of a token
+     */
+    public static class Claims {
+        private final String username;
+        private final String nickname;
+
+        Claims(String username, String nickname) {
+            this.username = username;
+            this.nickname = nickname;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * The nickname at the time of login, null for tokens issued without one
+         */
+        public String getNickname() {
+            return nickname;
+        }
+    }
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final ThreadLocal<Mac> macs;
+
+    public TokenService(byte[] secret, long ttlSeconds) {
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+        this.ttlSeconds = ttlSeconds;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * Creates a token for the user that expires ttlSeconds after nowSeconds
+     */
+    public String issue(String username, String nickname, long nowSeconds) {
+        JSONObject claims = new JSONObject();
+        claims.put("sub", username);
+        claims.put("nick", nickname);
+        claims.put("exp", nowSeconds + ttlSeconds);
+        String payload = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(claims.toString().getBytes(StandardCharsets.UTF_8));
+        return payload + "." + sign(payload);
+    }
+
+    /**
+     * Returns the claims of a correctly signed, unexpired token, otherwise null
+     */
+    public Claims verify(String token, long nowSeconds) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        byte[] expected = sign(payload).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = token.substring(dot + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            return null;
+        }
+        try {
+            JSONObject claims = new JSONObject(
+                new String(Base64.getUrlDecoder().decode(payload), StandardCharsets.UTF_8));
+            if (claims.getLong("exp") <= nowSeconds) {
+                return null;
+            }
+            return new Claims(claims.getString("sub"), claims.optString("nick", null));
+        } catch (IllegalArgumentException | JSONException e) {
+            return null;
+        }
+    }
+
+    private String sign(String payload) {
+        byte[] signature = macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    }
+}
@@ -1,36 +1,131 @@
 package com.o3.server;
 
 import com.sun.net.httpserver.BasicAuthenticator;
-import org.apache.commons.codec.digest.UnixCrypt;
+import com.sun.net.httpserver.HttpExchange;
+import org.apache.commons.codec.digest.Crypt;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.sql.SQLException;
 import java.util.Base64;
 
 public class UserAuthenticator extends BasicAuthenticator {
+    private static final long DEFAULT_CACHE_TTL_SECONDS = 300;
+    private static final int DEFAULT_CACHE_MAX_ENTRIES = 10000;
+
+    private static final String CHECK_DURATION = "o3_auth_check_duration_seconds";
+    private static final String CHECK_HELP = "Time to check Basic credentials by outcome";
+
     private final SecureRandom secureRandom;
-    
+    private final CredentialCache credentialCache;
+    private final Histogram cachedTimer;
+    private final Histogram verifiedTimer;
+    private final Histogram rejectedTimer;
+
     public UserAuthenticator(String realm) {
+        this(realm, new CredentialCache(DEFAULT_CACHE_TTL_SECONDS, DEFAULT_CACHE_MAX_ENTRIES));
+    }
+
+    public UserAuthenticator(String realm, CredentialCache credentialCache) {
         super(realm);
         this.secureRandom = new SecureRandom();
+        this.credentialCache = credentialCache;
+        Metrics metrics = Metrics.getInstance();
+        this.cachedTimer = metrics.timer(CHECK_DURATION, CHECK_HELP, Metrics.labels("result", "cached"));
+        this.verifiedTimer = metrics.timer(CHECK_DURATION, CHECK_HELP, Metrics.labels("result", "verified"));
+        this.rejectedTimer = metrics.timer(CHECK_DURATION, CHECK_HELP, Metrics.labels("result", "rejected"));
+    }
+
+    /**
+     * Same Basic auth handshake as BasicAuthenticator, but the principal also carries the
+     * nickname found while verifying the credentials
+     */
+    @Override
+    public Result authenticate(HttpExchange exchange) {
+        // Don't spend a crypt on a request that is going to be rejected anyway
+        if (AdmissionExecutor.isShedding()) {
+            return AdmissionExecutor.rejectAuthentication(exchange);
+        }
+
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null) {
+            setAuthenticateHeader(exchange);
+            return new Retry(401);
+        }
+
+        int space = authorization.indexOf(' ');
+        if (space == -1 || !authorization.substring(0, space).equals("Basic")) {
+            return new Failure(401);
+        }
+
+        String credentials;
+        try {
+            credentials = new String(Base64.getDecoder().decode(authorization.substring(space + 1)),
+                                     StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return new Failure(401);
+        }
+        int colon = credentials.indexOf(':');
+        if (colon == -1) {
+            return new Failure(401);
+        }
+
+        String username = credentials.substring(0, colon);
+        String nickname = verify(username, credentials.substring(colon + 1));
+        if (nickname == null) {
+            setAuthenticateHeader(exchange);
+            return new Retry(401);
+        }
+        return new Success(new UserPrincipal(username, getRealm(), nickname));
+    }
+
+    private void setAuthenticateHeader(HttpExchange exchange) {
+        exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"" + getRealm() + "\"");
     }
 
     @Override
     public boolean checkCredentials(String username, String password) {
+        return verify(username, password) != null;
+    }
+
+    /**
+     * Checks the credentials and returns the user's nickname, or null if they are invalid
+     */
+    private String verify(String username, String password) {
+        long start = System.nanoTime();
+        // Basic auth resends the password on every request, skip the crypt if it was verified recently
+        String cachedNickname = credentialCache.getVerifiedNickname(username, password);
+        if (cachedNickname != null) {
+            cachedTimer.record(System.nanoTime() - start);
+            return cachedNickname;
+        }
         try {
             MessageDatabase db = MessageDatabase.getInstance();
             User user = db.getUser(username);
             if (user != null) {
                 String hashedPassword = user.getPassword();
-                // Use UnixCrypt to verify password against stored hash
-                return hashedPassword.equals(UnixCrypt.crypt(password, hashedPassword));
+                // Crypt picks the algorithm from the stored hash prefix ($6$ is SHA-512)
+                PasswordHashEvent hashEvent = new PasswordHashEvent();
+                hashEvent.begin();
+                boolean matched = hashedPassword.equals(Crypt.crypt(password, hashedPassword));
+                if (hashEvent.shouldCommit()) {
+                    hashEvent.operation = PasswordHashEvent.VERIFY;
+                    hashEvent.matched = matched;
+                    hashEvent.commit();
+                }
+                if (matched) {
+                    credentialCache.put(username, password, user.getNickname());
+                    verifiedTimer.record(System.nanoTime() - start);
+                    return user.getNickname();
+                }
             }
         } catch (SQLException e) {
-            System.err.println("Error checking credentials: " + e.getMessage());
+            Log.error("Error checking credentials: {}", e.getMessage());
         } catch (IllegalArgumentException e) {
             // Handle invalid hash format
-            System.err.println("Invalid password hash format: " + e.getMessage());
+            Log.warn("Invalid password hash format: {}", e.getMessage());
         }
-        return false;
+        rejectedTimer.record(System.nanoTime() - start);
+        return null;
     }
 
     public boolean addUser(String username, String password, String email, String nickname) {
@@ -39,15 +134,31 @@ public class UserAuthenticator extends BasicAuthenticator {
             // Generate random salt for SHA-512
             byte[] saltBytes = new byte[12];
             secureRandom.nextBytes(saltBytes);
-            // Encode to Base64 without padding, which gives exactly 16 characters
-            String saltString = Base64.getEncoder().withoutPadding().encodeToString(saltBytes);
+            // Encode to Base64 without padding, which gives exactly 16 characters;
+            // crypt salts only allow [./a-zA-Z0-9], so '+' is mapped to '.'
+            String saltString = Base64.getEncoder().withoutPadding().encodeToString(saltBytes).replace('+', '.');
             String salt = "$6$" + saltString;
-            // Hash the password using UnixCrypt with SHA-512
-            String hashedPassword = UnixCrypt.crypt(password, salt);
-            return db.addUser(username, hashedPassword, email, nickname);
+            // Hash the password using SHA-512 crypt
+            PasswordHashEvent hashEvent = new PasswordHashEvent();
+            hashEvent.begin();
+            String hashedPassword = Crypt.crypt(password, salt);
+            if (hashEvent.shouldCommit()) {
+                hashEvent.operation = PasswordHashEvent.REGISTER;
+                hashEvent.matched = true;
+                hashEvent.commit();
+            }
+            boolean added = db.addUser(username, hashedPassword, email, nickname);
+            if (added) {
+                credentialCache.invalidate(username);
+            }
+            return added;
         } catch (SQLException e) {
-            System.err.println("Error adding user: " + e.getMessage());
+            Log.error("Error adding user: {}", e.getMessage());
             return false;
         }
     }
+
+    public CredentialCache getCredentialCache() {
+        return credentialCache;
+    }
 }
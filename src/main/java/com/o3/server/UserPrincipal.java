@@ -0,0 +1,20 @@
+package com.o3.server;
+
+import com.sun.net.httpserver.HttpPrincipal;
+
+/**
+ * An authenticated user together with the nickname loaded while checking the credentials,
+ * so request handlers do not have to look it up again.
+ */
+public class UserPrincipal extends HttpPrincipal {
+    private final String nickname;
+
+    public UserPrincipal(String username, String realm, String nickname) {
+        super(username, realm);
+        this.nickname = nickname;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+}
@@ -0,0 +1,22 @@
+package com.o3.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one weather lookup made while enriching an observatory
+ */
+@Name("com.o3.server.WeatherFetch")
+@Label("Weather Fetch")
+@Category({"O3 Server", "Weather"})
+@Description("Weather data fetched for an observatory")
+public class WeatherFetchEvent extends Event {
+    @Label("Latitude")
+    double latitude;
+
+    @Label("Longitude")
+    double longitude;
+}
@@ -14,7 +14,15 @@ public class WeatherFetcher {
      * @return JSONObject containing temperature_in_kelvins, cloudiness_percentage, and background_light_volume
      */
     public static JSONObject fetchWeatherData(double latitude, double longitude) {
-        return getMockWeatherData();
+        WeatherFetchEvent event = new WeatherFetchEvent();
+        event.begin();
+        JSONObject weatherData = getMockWeatherData();
+        if (event.shouldCommit()) {
+            event.latitude = latitude;
+            event.longitude = longitude;
+            event.commit();
+        }
+        return weatherData;
     }
     
     /**